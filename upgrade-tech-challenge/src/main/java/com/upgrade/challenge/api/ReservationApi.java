@@ -1,23 +1,37 @@
 package com.upgrade.challenge.api;
 
+import com.upgrade.challenge.api.model.AvailableWindow;
 import com.upgrade.challenge.api.model.ReservationApiModel;
+import com.upgrade.challenge.api.model.ReservationPage;
 import com.upgrade.challenge.dao.model.Reservation;
 import com.upgrade.challenge.impl.exception.ReservationException;
 import lombok.NonNull;
 
 import java.time.LocalDate;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 public interface ReservationApi {
     List<String> getAvailabilityDays(@NonNull final LocalDate startDate,@NonNull final LocalDate endDate);
 
+    List<AvailableWindow> findAvailableWindows(@NonNull final LocalDate startDate, @NonNull final LocalDate endDate, final int nights, final int count) throws ReservationException;
+
     Optional<Long> reserve(@NonNull final ReservationApiModel reservation) throws ReservationException;
 
     void cancelReservation(@NonNull final Long id) throws ReservationException;
 
     Optional<Long> updateReservation(@NonNull final Long id, @NonNull final ReservationApiModel newReservation) throws ReservationException;
 
+    Optional<Reservation> findReservation(@NonNull final Long id);
+
+    ReservationPage findReservationsByEmail(@NonNull final String email, final Boolean cancelled, final LocalDate fromDate, final LocalDate toDate,
+                                            final String cursor, final Integer limit) throws ReservationException;
+
+    Map<String, Integer> getRemainingUnits(@NonNull final LocalDate startDate, @NonNull final LocalDate endDate);
+
+    Long getCalendarVersion(@NonNull final LocalDate startDate, @NonNull final LocalDate endDate);
+
     Boolean isAvailable(@NonNull final LocalDate startDate, @NonNull final LocalDate endDate);
 
     Boolean isReservationValid(@NonNull final ReservationApiModel reservation) throws ReservationException;
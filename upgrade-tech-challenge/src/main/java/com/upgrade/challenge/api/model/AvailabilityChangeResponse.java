@@ -0,0 +1,14 @@
+package com.upgrade.challenge.api.model;
+
+import lombok.Value;
+
+import java.util.List;
+import java.util.Map;
+
+@Value
+public class AvailabilityChangeResponse {
+    List<String> daysAvailableList;
+    List<String> daysTakenList;
+    // calendar version of each night's flip, a client ignores a night older than the last one it applied
+    Map<String, Long> nightVersions;
+}
@@ -0,0 +1,14 @@
+package com.upgrade.challenge.api.model;
+
+import lombok.Value;
+
+import java.time.LocalDate;
+import java.util.Map;
+
+// published once a reservation change is saved, holds only the nights that flipped, each with the calendar version of
+// its flip; events can be published out of order, the higher version of a night is its current state
+@Value
+public class AvailabilityChangedEvent {
+    Map<LocalDate, Long> daysAvailable;
+    Map<LocalDate, Long> daysTaken;
+}
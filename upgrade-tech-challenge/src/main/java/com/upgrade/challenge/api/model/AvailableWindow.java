@@ -0,0 +1,9 @@
+package com.upgrade.challenge.api.model;
+
+import lombok.Value;
+
+@Value
+public class AvailableWindow {
+    String startDate;
+    String endDate;
+}
@@ -0,0 +1,12 @@
+package com.upgrade.challenge.api.model;
+
+import lombok.Value;
+
+import java.util.List;
+import java.util.Optional;
+
+@Value
+public class AvailableWindowsResponse {
+    List<AvailableWindow> availableWindowList;
+    Optional<String> errorMessage;
+}
@@ -0,0 +1,12 @@
+package com.upgrade.challenge.api.model;
+
+import lombok.Value;
+
+import java.util.Map;
+import java.util.Optional;
+
+@Value
+public class CapacityResponse {
+    Map<String, Integer> remainingUnitsByDay;
+    Optional<String> errorMessage;
+}
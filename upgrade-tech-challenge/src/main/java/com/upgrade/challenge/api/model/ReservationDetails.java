@@ -0,0 +1,13 @@
+package com.upgrade.challenge.api.model;
+
+import lombok.Value;
+
+@Value
+public class ReservationDetails {
+    Long reservationId;
+    String email;
+    String fullName;
+    String startDate;
+    String endDate;
+    boolean cancelled;
+}
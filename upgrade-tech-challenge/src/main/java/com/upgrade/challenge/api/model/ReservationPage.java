@@ -0,0 +1,13 @@
+package com.upgrade.challenge.api.model;
+
+import lombok.Value;
+
+import java.util.List;
+import java.util.Optional;
+
+@Value
+public class ReservationPage {
+    List<ReservationDetails> reservations;
+    Optional<String> nextCursor;
+    Optional<String> errorMessage;
+}
@@ -0,0 +1,19 @@
+package com.upgrade.challenge.api.model;
+
+import lombok.Value;
+
+import java.util.Optional;
+
+@Value
+public class ReservationResponse {
+    Optional<Long> reservationId;
+    Optional<String> errorMessage;
+
+    public static ReservationResponse success(final Long reservationId) {
+        return new ReservationResponse(Optional.of(reservationId), Optional.empty());
+    }
+
+    public static ReservationResponse error(final String errorMessage) {
+        return new ReservationResponse(Optional.empty(), Optional.of(errorMessage));
+    }
+}
@@ -0,0 +1,61 @@
+package com.upgrade.challenge.capture;
+
+import lombok.NonNull;
+import lombok.Value;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+// one line of the trace file, tab separated: timestamp, duration (micros), method, path, query, status, body, then the
+// Accept, If-None-Match and If-Modified-Since request headers, a hash of the response body and the id a reservation
+// create returned; traces recorded before the headers, the hash or the id were added have 7, 10 or 11 fields
+@Value
+public class CapturedRequest {
+
+    private static final String SEPARATOR = "\t";
+
+    long timestamp;
+    long durationMicros;
+    String method;
+    String path;
+    String query;
+    int status;
+    String body;
+    String accept;
+    String ifNoneMatch;
+    String ifModifiedSince;
+    String responseHash;
+    String reservationId;
+
+    @NonNull
+    public String toLine() {
+        return String.join(SEPARATOR, Long.toString(timestamp), Long.toString(durationMicros), method, path, query, Integer.toString(status), body,
+                accept, ifNoneMatch, ifModifiedSince, responseHash, reservationId);
+    }
+
+    @NonNull
+    public static CapturedRequest fromLine(@NonNull final String line) {
+        String[] fields = line.split(SEPARATOR, -1);
+        if (fields.length != 7 && fields.length != 10 && fields.length != 11 && fields.length != 12) {
+            throw new IllegalArgumentException(String.format("Invalid trace line : %s", line));
+        }
+        boolean hasHeaders = fields.length >= 10;
+        return new CapturedRequest(Long.parseLong(fields[0]), Long.parseLong(fields[1]), fields[2], fields[3], fields[4], Integer.parseInt(fields[5]), fields[6],
+                hasHeaders ? fields[7] : "", hasHeaders ? fields[8] : "", hasHeaders ? fields[9] : "",
+                fields.length >= 11 ? fields[10] : "", fields.length == 12 ? fields[11] : "");
+    }
+
+    // empty for an empty body, so bodiless responses such as 304 are not compared
+    @NonNull
+    public static String hashOf(@NonNull final byte[] body) {
+        if (body.length == 0) {
+            return "";
+        }
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(body), 0, 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
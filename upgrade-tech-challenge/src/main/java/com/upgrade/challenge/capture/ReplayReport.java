@@ -0,0 +1,88 @@
+package com.upgrade.challenge.capture;
+
+import lombok.NonNull;
+
+import java.util.*;
+
+// latency distribution, status and body divergences per endpoint, endpoints are the path with numeric ids collapsed;
+// calls on a reservation created before the trace started are counted apart, the replay target never had it
+public class ReplayReport {
+
+    private final Map<String, EndpointStats> statsByEndpoint = new TreeMap<>();
+
+    // compareBody is false once the replayed request or response carries a reservation id mapped from the trace
+    public synchronized void record(@NonNull final CapturedRequest request, final int status, @NonNull final String responseHash, final boolean compareBody,
+                                    final long latencyMicros) {
+        EndpointStats stats = statsByEndpoint.computeIfAbsent(endpointOf(request), key -> new EndpointStats());
+        stats.recordedLatencies.add(request.getDurationMicros());
+        stats.replayedLatencies.add(latencyMicros);
+        if (status != request.getStatus()) {
+            stats.divergences++;
+        } else if (compareBody && !request.getResponseHash().isEmpty() && !request.getResponseHash().equals(responseHash)) {
+            // same status but a different result, e.g. another reservation id or availability list
+            stats.bodyDivergences++;
+        }
+    }
+
+    public synchronized void recordFailure(@NonNull final CapturedRequest request) {
+        statsByEndpoint.computeIfAbsent(endpointOf(request), key -> new EndpointStats()).failures++;
+    }
+
+    public synchronized void recordUnmapped(@NonNull final CapturedRequest request) {
+        statsByEndpoint.computeIfAbsent(endpointOf(request), key -> new EndpointStats()).unmapped++;
+    }
+
+    public synchronized int getUnmappedCount() {
+        return statsByEndpoint.values().stream().mapToInt(stats -> stats.unmapped).sum();
+    }
+
+    public synchronized int getRequestCount() {
+        return statsByEndpoint.values().stream().mapToInt(stats -> stats.replayedLatencies.size() + stats.failures).sum();
+    }
+
+    public synchronized int getDivergenceCount() {
+        return statsByEndpoint.values().stream().mapToInt(stats -> stats.divergences + stats.bodyDivergences + stats.failures).sum();
+    }
+
+    @NonNull
+    public synchronized String format() {
+        StringBuilder result = new StringBuilder(String.format("%-50s %8s %10s %10s %10s %10s %12s %11s %11s %8s %8s%n",
+                "endpoint", "count", "p50(us)", "p90(us)", "p99(us)", "max(us)", "rec p50(us)", "status div", "body div", "failures", "unmapped"));
+        statsByEndpoint.forEach((endpoint, stats) -> {
+            List<Long> replayed = sorted(stats.replayedLatencies);
+            result.append(String.format("%-50s %8d %10d %10d %10d %10d %12d %11d %11d %8d %8d%n", endpoint, replayed.size(),
+                    percentile(replayed, 0.50), percentile(replayed, 0.90), percentile(replayed, 0.99), percentile(replayed, 1.0),
+                    percentile(sorted(stats.recordedLatencies), 0.50), stats.divergences, stats.bodyDivergences, stats.failures, stats.unmapped));
+        });
+        return result.toString();
+    }
+
+    @NonNull
+    static String endpointOf(@NonNull final CapturedRequest request) {
+        return request.getMethod() + " " + request.getPath().replaceAll("/\\d+(?=/|$)", "/{id}");
+    }
+
+    static long percentile(@NonNull final List<Long> sortedValues, final double percentile) {
+        if (sortedValues.isEmpty()) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile * sortedValues.size()) - 1;
+        return sortedValues.get(Math.max(0, index));
+    }
+
+    @NonNull
+    private static List<Long> sorted(@NonNull final List<Long> values) {
+        List<Long> result = new ArrayList<>(values);
+        Collections.sort(result);
+        return result;
+    }
+
+    private static class EndpointStats {
+        private final List<Long> recordedLatencies = new ArrayList<>();
+        private final List<Long> replayedLatencies = new ArrayList<>();
+        private int divergences;
+        private int bodyDivergences;
+        private int failures;
+        private int unmapped;
+    }
+}
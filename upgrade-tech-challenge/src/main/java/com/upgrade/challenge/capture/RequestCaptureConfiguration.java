@@ -0,0 +1,50 @@
+package com.upgrade.challenge.capture;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+
+@Configuration
+@ConditionalOnProperty(name = "campsite.capture.enabled", havingValue = "true")
+public class RequestCaptureConfiguration {
+
+    private static final int RANDOM_KEY_BYTES = 32;
+
+    private Logger logger = LoggerFactory.getLogger(RequestCaptureConfiguration.class);
+
+    @Bean(destroyMethod = "close")
+    public RequestCaptureFilter requestCaptureFilter(ObjectMapper objectMapper,
+                                                     @Value("${campsite.capture.file:capture/campsite-trace.tsv}") String file,
+                                                     @Value("${campsite.capture.queue-size:10000}") int queueSize,
+                                                     @Value("${campsite.capture.pseudonym-key:}") String pseudonymKey) throws IOException {
+        return new RequestCaptureFilter(objectMapper, pseudonymKeyOf(pseudonymKey), Path.of(file), queueSize);
+    }
+
+    @Bean
+    public FilterRegistrationBean<RequestCaptureFilter> requestCaptureFilterRegistration(RequestCaptureFilter requestCaptureFilter) {
+        FilterRegistrationBean<RequestCaptureFilter> registration = new FilterRegistrationBean<>(requestCaptureFilter);
+        registration.addUrlPatterns("/api/v1/campsite/*");
+        return registration;
+    }
+
+    // without a configured key every run gets its own, pseudonyms then only correlate within one run of the process
+    private byte[] pseudonymKeyOf(String pseudonymKey) {
+        if (!pseudonymKey.isBlank()) {
+            return pseudonymKey.getBytes(StandardCharsets.UTF_8);
+        }
+        logger.info("No campsite.capture.pseudonym-key configured, pseudonyms use a random key until the next restart");
+        byte[] key = new byte[RANDOM_KEY_BYTES];
+        new SecureRandom().nextBytes(key);
+        return key;
+    }
+}
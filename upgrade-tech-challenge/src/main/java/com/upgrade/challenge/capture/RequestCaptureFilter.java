@@ -0,0 +1,234 @@
+package com.upgrade.challenge.capture;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.NonNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingRequestWrapper;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// records every campsite API call to an append-only trace for offline replay, email and name are replaced by stable
+// pseudonyms so lookups still correlate. Pseudonyms are keyed hashes, the key never leaves the capturing process, so a
+// list of known emails cannot be hashed and matched against a trace; lines go through a bounded queue so the disk
+// never slows a request down.
+// The availability stream is left out, it never completes so it has no status, duration or body to compare
+public class RequestCaptureFilter extends OncePerRequestFilter implements AutoCloseable {
+
+    private static final Set<String> REDACTED_FIELDS = Set.of("email", "fullName");
+
+    private static final String STREAM_PATH_SUFFIX = "/availability/stream";
+
+    private static final String PSEUDONYM_ALGORITHM = "HmacSHA256";
+
+    private static final String RESERVATION_PATH_SUFFIX = "/reservation";
+
+    private final ObjectMapper objectMapper;
+
+    private final SecretKeySpec pseudonymKey;
+
+    private final BlockingQueue<String> pendingLines;
+
+    private final AtomicLong droppedLines = new AtomicLong();
+
+    private final BufferedWriter writer;
+
+    private final Thread writerThread;
+
+    private volatile boolean running = true;
+
+    private final Logger captureLogger = LoggerFactory.getLogger(RequestCaptureFilter.class);
+
+    public RequestCaptureFilter(@NonNull final ObjectMapper objectMapper, @NonNull final byte[] pseudonymKey, @NonNull final Path file, final int queueSize) throws IOException {
+        this.objectMapper = objectMapper;
+        this.pseudonymKey = new SecretKeySpec(pseudonymKey, PSEUDONYM_ALGORITHM);
+        this.pendingLines = new ArrayBlockingQueue<>(queueSize);
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        this.writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        this.writerThread = new Thread(this::writeLines, "request-capture-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return request.getRequestURI().endsWith(STREAM_PATH_SUFFIX);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        ContentCachingRequestWrapper cachingRequest = new ContentCachingRequestWrapper(request);
+        ContentCachingResponseWrapper cachingResponse = new ContentCachingResponseWrapper(response);
+        long timestamp = System.currentTimeMillis();
+        long start = System.nanoTime();
+        try {
+            filterChain.doFilter(cachingRequest, cachingResponse);
+        } finally {
+            long durationMicros = (System.nanoTime() - start) / 1000;
+            String responseHash = CapturedRequest.hashOf(cachingResponse.getContentAsByteArray());
+            String reservationId = createdReservationIdOf(request, cachingResponse);
+            cachingResponse.copyBodyToResponse();
+            // conditional and negotiated requests only replay the same way with the same headers
+            CapturedRequest capturedRequest = new CapturedRequest(timestamp, durationMicros, request.getMethod(), request.getRequestURI(),
+                    redactQuery(request.getQueryString()), response.getStatus(), redactBody(cachingRequest.getContentAsByteArray()),
+                    headerOf(request, HttpHeaders.ACCEPT), headerOf(request, HttpHeaders.IF_NONE_MATCH), headerOf(request, HttpHeaders.IF_MODIFIED_SINCE),
+                    responseHash, reservationId);
+            if (!pendingLines.offer(capturedRequest.toLine())) {
+                droppedLines.incrementAndGet();
+            }
+        }
+    }
+
+    public long getDroppedLines() {
+        return droppedLines.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        try {
+            writerThread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (writer) {
+            for (String line = pendingLines.poll(); line != null; line = pendingLines.poll()) {
+                writer.write(line);
+                writer.newLine();
+            }
+            writer.close();
+        }
+        if (droppedLines.get() > 0) {
+            captureLogger.warn("Request capture dropped {} line(s), the writer could not keep up", droppedLines.get());
+        }
+    }
+
+    @NonNull
+    String redactQuery(final String query) {
+        if (query == null || query.isEmpty()) {
+            return "";
+        }
+        StringJoiner result = new StringJoiner("&");
+        for (String parameter : query.split("&")) {
+            int separator = parameter.indexOf('=');
+            String name = separator < 0 ? parameter : parameter.substring(0, separator);
+            if (separator >= 0 && REDACTED_FIELDS.contains(name)) {
+                result.add(name + "=" + pseudonym(name, URLDecoder.decode(parameter.substring(separator + 1), StandardCharsets.UTF_8)));
+            } else {
+                result.add(parameter);
+            }
+        }
+        return result.toString();
+    }
+
+    @NonNull
+    String redactBody(final byte[] body) {
+        if (body.length == 0) {
+            return "";
+        }
+        try {
+            JsonNode json = objectMapper.readTree(body);
+            if (json instanceof ObjectNode objectNode) {
+                for (String field : REDACTED_FIELDS) {
+                    JsonNode value = objectNode.get(field);
+                    if (value != null && value.isTextual()) {
+                        objectNode.put(field, pseudonym(field, value.asText()));
+                    }
+                }
+            }
+            // compact JSON never contains a raw tab or newline, so it is safe inside a trace line
+            return objectMapper.writeValueAsString(json);
+        } catch (IOException e) {
+            // a body that cannot be parsed cannot be redacted either, it is not recorded
+            return "";
+        }
+    }
+
+    // the replay maps it to the id its own create returns, later updates and cancels of the reservation are rewritten
+    // with it; only JSON responses are read, the id of a CBOR or Smile create is left empty
+    @NonNull
+    String createdReservationIdOf(@NonNull final HttpServletRequest request, @NonNull final ContentCachingResponseWrapper response) {
+        if (!"POST".equals(request.getMethod()) || !request.getRequestURI().endsWith(RESERVATION_PATH_SUFFIX) || response.getStatus() != HttpServletResponse.SC_OK
+                || response.getContentType() == null || !MediaType.APPLICATION_JSON.isCompatibleWith(MediaType.parseMediaType(response.getContentType()))) {
+            return "";
+        }
+        try {
+            JsonNode reservationId = objectMapper.readTree(response.getContentAsByteArray()).get("reservationId");
+            return reservationId != null && reservationId.isIntegralNumber() ? reservationId.asText() : "";
+        } catch (IOException e) {
+            return "";
+        }
+    }
+
+    @NonNull
+    private static String headerOf(@NonNull final HttpServletRequest request, @NonNull final String name) {
+        String value = request.getHeader(name);
+        return value == null ? "" : value.replaceAll("[\\t\\r\\n]", " ");
+    }
+
+    @NonNull
+    private String pseudonym(@NonNull final String field, @NonNull final String value) {
+        try {
+            Mac mac = Mac.getInstance(PSEUDONYM_ALGORITHM);
+            mac.init(pseudonymKey);
+            String hash = HexFormat.of().formatHex(mac.doFinal(value.getBytes(StandardCharsets.UTF_8)), 0, 6);
+            return "email".equals(field) ? String.format("user-%s@redacted.invalid", hash) : String.format("user-%s", hash);
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void writeLines() {
+        try {
+            while (running) {
+                String line = pendingLines.poll(200, TimeUnit.MILLISECONDS);
+                if (line == null) {
+                    continue;
+                }
+                synchronized (writer) {
+                    writer.write(line);
+                    writer.newLine();
+                    // batch whatever else is already queued, flush once the queue is drained
+                    for (line = pendingLines.poll(); line != null; line = pendingLines.poll()) {
+                        writer.write(line);
+                        writer.newLine();
+                    }
+                    writer.flush();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            captureLogger.error("Request capture stopped, unable to write the trace file", e);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.upgrade.challenge.capture;
+
+import lombok.NonNull;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// re-issues a trace recorded by RequestCaptureFilter against a running instance, keeping the original spacing between
+// requests divided by speed, e.g. java -cp target/classes com.upgrade.challenge.capture.TrafficReplayRunner trace.tsv http://localhost:8080 10.
+// Availability ETags embed a calendar version that starts at the instance's startup time, so a recorded If-None-Match
+// never matches the replay target; it is replaced by the ETag the replay last got for the same URL and Accept header.
+// Reservation ids differ as well, updates and cancels are sent to the id the replayed create returned
+public class TrafficReplayRunner {
+
+    private static final CompletableFuture<String> NO_ETAG = CompletableFuture.completedFuture("");
+
+    // completes with null: the reservation was created before the trace started, or its replayed create failed
+    private static final CompletableFuture<String> UNMAPPED = CompletableFuture.completedFuture(null);
+
+    private static final Pattern RESERVATION_ID_PATH = Pattern.compile("(.*/reservation/)(\\d+)");
+
+    private static final Pattern RESERVATION_ID_FIELD = Pattern.compile("\"reservationId\"\\s*:\\s*(\\d+)");
+
+    private final HttpClient httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+
+    private final URI baseUri;
+
+    private final double speed;
+
+    public TrafficReplayRunner(@NonNull final URI baseUri, final double speed) {
+        if (speed <= 0) {
+            throw new IllegalArgumentException("Replay speed must be positive!");
+        }
+        this.baseUri = baseUri;
+        this.speed = speed;
+    }
+
+    @NonNull
+    public ReplayReport replay(@NonNull final List<CapturedRequest> trace) {
+        ReplayReport report = new ReplayReport();
+        List<CompletableFuture<Void>> inFlight = new ArrayList<>();
+        if (trace.isEmpty()) {
+            return report;
+        }
+
+        // latest replayed ETag per GET resource and replayed id per recorded reservation id, only used by this thread
+        Map<String, CompletableFuture<String>> eTagsByResource = new HashMap<>();
+        Map<String, CompletableFuture<String>> replayedIdsByRecordedId = new HashMap<>();
+        long traceStart = trace.get(0).getTimestamp();
+        long replayStart = System.nanoTime();
+        for (CapturedRequest capturedRequest : trace) {
+            // requests are issued in trace order from this thread, responses complete asynchronously
+            long dueNanos = replayStart + (long) ((capturedRequest.getTimestamp() - traceStart) * 1_000_000L / speed);
+            for (long wait = dueNanos - System.nanoTime(); wait > 0; wait = dueNanos - System.nanoTime()) {
+                LockSupport.parkNanos(wait);
+            }
+
+            String resource = "GET".equals(capturedRequest.getMethod()) ? pathAndQueryOf(capturedRequest) + " " + capturedRequest.getAccept() : null;
+            CompletableFuture<String> knownETag = resource == null ? NO_ETAG : eTagsByResource.getOrDefault(resource, NO_ETAG);
+            // a conditional request waits for the response it revalidates, like the client that recorded it did
+            CompletableFuture<String> ready = capturedRequest.getIfNoneMatch().isEmpty() ? NO_ETAG : knownETag;
+            // bodies carry the reservation id, they cannot match once it is mapped
+            boolean mapsId = RESERVATION_ID_PATH.matcher(capturedRequest.getPath()).matches() || !capturedRequest.getReservationId().isEmpty();
+            CompletableFuture<String> path = replayedPathOf(capturedRequest, replayedIdsByRecordedId);
+            AtomicLong sentAt = new AtomicLong();
+            // completes with null when the request is not sent as its reservation id cannot be mapped
+            CompletableFuture<HttpResponse<byte[]>> response = ready.thenCompose(eTag -> path.thenCompose(replayedPath -> {
+                if (replayedPath == null) {
+                    return CompletableFuture.completedFuture(null);
+                }
+                sentAt.set(System.nanoTime());
+                return httpClient.sendAsync(toHttpRequest(capturedRequest, replayedPath, eTag), HttpResponse.BodyHandlers.ofByteArray());
+            }));
+            if (!capturedRequest.getReservationId().isEmpty()) {
+                replayedIdsByRecordedId.put(capturedRequest.getReservationId(), response.handle((replayed, error) -> replayedIdOf(replayed)));
+            }
+            Matcher idPath = RESERVATION_ID_PATH.matcher(capturedRequest.getPath());
+            if (idPath.matches() && replayedIdsByRecordedId.containsKey(idPath.group(2))) {
+                // the next call on the same reservation waits for this one, e.g. a cancel right after an update
+                CompletableFuture<String> replayedId = replayedIdsByRecordedId.get(idPath.group(2));
+                replayedIdsByRecordedId.put(idPath.group(2), response.handle((replayed, error) -> null).thenCombine(replayedId, (ignored, id) -> id));
+            }
+            if (resource != null) {
+                eTagsByResource.put(resource, response.handle((replayed, error) -> replayed == null ? null : replayed.headers().firstValue("ETag").orElse(null))
+                        .thenCombine(knownETag, (eTag, previous) -> eTag != null ? eTag : previous));
+            }
+            inFlight.add(response.handle((replayed, error) -> {
+                if (error != null) {
+                    report.recordFailure(capturedRequest);
+                } else if (replayed == null) {
+                    report.recordUnmapped(capturedRequest);
+                } else {
+                    report.record(capturedRequest, replayed.statusCode(), CapturedRequest.hashOf(replayed.body()), !mapsId,
+                            (System.nanoTime() - sentAt.get()) / 1000);
+                }
+                return null;
+            }));
+        }
+        CompletableFuture.allOf(inFlight.toArray(new CompletableFuture[0])).join();
+        return report;
+    }
+
+    // lines are appended as requests complete, so they are put back in arrival order
+    @NonNull
+    public static List<CapturedRequest> readTrace(@NonNull final Path file) throws IOException {
+        try (var lines = Files.lines(file)) {
+            return lines.filter(line -> !line.isBlank()).map(CapturedRequest::fromLine)
+                    .sorted(Comparator.comparingLong(CapturedRequest::getTimestamp)).toList();
+        }
+    }
+
+    @NonNull
+    private static String pathAndQueryOf(@NonNull final CapturedRequest capturedRequest) {
+        return pathAndQueryOf(capturedRequest.getPath(), capturedRequest.getQuery());
+    }
+
+    @NonNull
+    private static String pathAndQueryOf(@NonNull final String path, @NonNull final String query) {
+        return query.isEmpty() ? path : path + "?" + query;
+    }
+
+    // an update or cancel waits for the create, and the calls before it, on the same reservation; null when that create
+    // is not part of the replay
+    @NonNull
+    private static CompletableFuture<String> replayedPathOf(@NonNull final CapturedRequest capturedRequest,
+                                                            @NonNull final Map<String, CompletableFuture<String>> replayedIdsByRecordedId) {
+        Matcher matcher = RESERVATION_ID_PATH.matcher(capturedRequest.getPath());
+        if (!matcher.matches()) {
+            return CompletableFuture.completedFuture(capturedRequest.getPath());
+        }
+        String pathPrefix = matcher.group(1);
+        return replayedIdsByRecordedId.getOrDefault(matcher.group(2), UNMAPPED).thenApply(replayedId -> replayedId == null ? null : pathPrefix + replayedId);
+    }
+
+    // the id a replayed create returned, read from a JSON body only
+    private static String replayedIdOf(final HttpResponse<byte[]> response) {
+        if (response == null || response.statusCode() != 200) {
+            return null;
+        }
+        Matcher matcher = RESERVATION_ID_FIELD.matcher(new String(response.body(), StandardCharsets.UTF_8));
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    // replayedETag is empty until this replay has seen a response for the resource, the recorded value is sent then
+    @NonNull
+    private HttpRequest toHttpRequest(@NonNull final CapturedRequest capturedRequest, @NonNull final String path, @NonNull final String replayedETag) {
+        String pathAndQuery = pathAndQueryOf(path, capturedRequest.getQuery());
+        HttpRequest.BodyPublisher body = capturedRequest.getBody().isEmpty()
+                ? HttpRequest.BodyPublishers.noBody()
+                : HttpRequest.BodyPublishers.ofString(capturedRequest.getBody());
+        HttpRequest.Builder builder = HttpRequest.newBuilder(baseUri.resolve(pathAndQuery))
+                .timeout(Duration.ofSeconds(30))
+                .header("Content-Type", "application/json")
+                .method(capturedRequest.getMethod(), body);
+        setHeader(builder, "Accept", capturedRequest.getAccept());
+        setHeader(builder, "If-None-Match", capturedRequest.getIfNoneMatch().isEmpty() || replayedETag.isEmpty() ? capturedRequest.getIfNoneMatch() : replayedETag);
+        setHeader(builder, "If-Modified-Since", capturedRequest.getIfModifiedSince());
+        return builder.build();
+    }
+
+    private static void setHeader(@NonNull final HttpRequest.Builder builder, @NonNull final String name, @NonNull final String value) {
+        if (!value.isEmpty()) {
+            builder.header(name, value);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: TrafficReplayRunner <trace-file> <base-url> [speed]");
+            System.exit(1);
+        }
+        double speed = args.length > 2 ? Double.parseDouble(args[2]) : 1.0;
+        List<CapturedRequest> trace = readTrace(Path.of(args[0]));
+
+        ReplayReport report = new TrafficReplayRunner(URI.create(args[1]), speed).replay(trace);
+        System.out.print(report.format());
+        System.out.printf("Replayed %d request(s) at %sx, %d divergence(s), %d skipped on a reservation created before the trace%n",
+                report.getRequestCount(), speed, report.getDivergenceCount(), report.getUnmappedCount());
+    }
+}
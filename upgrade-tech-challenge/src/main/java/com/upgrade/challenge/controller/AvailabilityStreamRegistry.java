@@ -0,0 +1,220 @@
+package com.upgrade.challenge.controller;
+
+import com.upgrade.challenge.api.model.AvailabilityChangeResponse;
+import com.upgrade.challenge.api.model.AvailabilityChangedEvent;
+import jakarta.annotation.PreDestroy;
+import lombok.NonNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// fans availability changes out to SSE subscribers, subscriptions are indexed by month so a change only visits the
+// subscribers whose window can contain it, and each subscriber has a bounded queue drained off the publishing thread.
+// emitter.send is a blocking servlet write, so queues are drained on an elastic pool: a client that stopped reading
+// pins only the thread draining its own queue, never one another subscriber is waiting for
+@Component
+public class AvailabilityStreamRegistry {
+
+    static final String AVAILABILITY_EVENT = "availability";
+
+    @Value("${campsite.availability.stream.max-pending-events:32}")
+    private int maxPendingEvents;
+
+    @Value("${campsite.availability.stream.send-timeout:5000}")
+    private long sendTimeout;
+
+    private final Map<YearMonth, Set<Subscription>> subscriptionsByMonth = new ConcurrentHashMap<>();
+
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+
+    // a thread per subscriber with a send in flight, idle ones are reclaimed after a minute
+    private final ExecutorService senderExecutor = Executors.newCachedThreadPool();
+
+    private Logger logger = LoggerFactory.getLogger(AvailabilityStreamRegistry.class);
+
+    // subscribe the emitter to the nights from startDate to endDate, both inclusive
+    public void register(@NonNull final SseEmitter emitter, @NonNull final LocalDate startDate, @NonNull final LocalDate endDate) {
+        Subscription subscription = new Subscription(emitter, startDate, endDate);
+        emitter.onCompletion(() -> unregister(subscription));
+        emitter.onTimeout(() -> unregister(subscription));
+        emitter.onError(e -> unregister(subscription));
+
+        subscriptions.add(subscription);
+        for (YearMonth month = YearMonth.from(startDate); !month.isAfter(YearMonth.from(endDate)); month = month.plusMonths(1)) {
+            subscriptionsByMonth.computeIfAbsent(month, key -> ConcurrentHashMap.newKeySet()).add(subscription);
+        }
+    }
+
+    public int getSubscriptionCount() {
+        return subscriptions.size();
+    }
+
+    @EventListener
+    public void onAvailabilityChanged(@NonNull final AvailabilityChangedEvent event) {
+        Map<Subscription, AvailabilityChangeResponse> changesBySubscription = new HashMap<>();
+        collectChanges(event.getDaysAvailable(), true, changesBySubscription);
+        collectChanges(event.getDaysTaken(), false, changesBySubscription);
+
+        changesBySubscription.forEach((subscription, change) ->
+                subscription.enqueue(SseEmitter.event().name(AVAILABILITY_EVENT).data(change, MediaType.APPLICATION_JSON)));
+    }
+
+    @Scheduled(fixedRateString = "${campsite.availability.stream.heartbeat-interval:15000}")
+    public void sendHeartbeats() {
+        for (Subscription subscription : subscriptions) {
+            subscription.enqueue(SseEmitter.event().comment("heartbeat"));
+        }
+    }
+
+    // per subscriber write deadline: a send blocked on a client that stopped reading holds its thread until the
+    // connector's socket write timeout fails it, the subscriber is dropped once past the deadline so nothing more is
+    // queued or sent to it
+    @Scheduled(fixedRateString = "${campsite.availability.stream.stall-check-interval:1000}")
+    public void dropStalledSubscribers() {
+        long now = System.nanoTime();
+        for (Subscription subscription : subscriptions) {
+            long sendStartedAt = subscription.sendStartedAt;
+            if (sendStartedAt != 0 && now - sendStartedAt > TimeUnit.MILLISECONDS.toNanos(sendTimeout)) {
+                logger.warn("Dropping availability subscriber for {} to {}, send blocked for more than {} ms",
+                        subscription.startDate, subscription.endDate, sendTimeout);
+                unregister(subscription);
+                subscription.discardPendingEvents();
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        senderExecutor.shutdownNow();
+        for (Subscription subscription : subscriptions) {
+            subscription.emitter.complete();
+        }
+    }
+
+    private void collectChanges(@NonNull final Map<LocalDate, Long> nights, final boolean available,
+                                @NonNull final Map<Subscription, AvailabilityChangeResponse> changesBySubscription) {
+        for (Map.Entry<LocalDate, Long> nightVersion : nights.entrySet()) {
+            LocalDate night = nightVersion.getKey();
+            Set<Subscription> candidates = subscriptionsByMonth.get(YearMonth.from(night));
+            if (candidates == null) {
+                continue;
+            }
+            for (Subscription subscription : candidates) {
+                if (subscription.covers(night)) {
+                    AvailabilityChangeResponse change = changesBySubscription.computeIfAbsent(subscription,
+                            key -> new AvailabilityChangeResponse(new ArrayList<>(), new ArrayList<>(), new TreeMap<>()));
+                    (available ? change.getDaysAvailableList() : change.getDaysTakenList()).add(night.toString());
+                    change.getNightVersions().put(night.toString(), nightVersion.getValue());
+                }
+            }
+        }
+    }
+
+    private void unregister(@NonNull final Subscription subscription) {
+        if (!subscriptions.remove(subscription)) {
+            return;
+        }
+        for (YearMonth month = YearMonth.from(subscription.startDate); !month.isAfter(YearMonth.from(subscription.endDate)); month = month.plusMonths(1)) {
+            subscriptionsByMonth.computeIfPresent(month, (key, monthSubscriptions) -> {
+                monthSubscriptions.remove(subscription);
+                return monthSubscriptions.isEmpty() ? null : monthSubscriptions;
+            });
+        }
+    }
+
+    private class Subscription {
+        private final SseEmitter emitter;
+        private final LocalDate startDate;
+        private final LocalDate endDate;
+        private final Queue<SseEmitter.SseEventBuilder> pendingEvents = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pendingCount = new AtomicInteger();
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        // System.nanoTime() when the send in progress started, 0 when idle
+        private volatile long sendStartedAt;
+
+        private Subscription(SseEmitter emitter, LocalDate startDate, LocalDate endDate) {
+            this.emitter = emitter;
+            this.startDate = startDate;
+            this.endDate = endDate;
+        }
+
+        private boolean covers(LocalDate night) {
+            return !night.isBefore(startDate) && !night.isAfter(endDate);
+        }
+
+        private void enqueue(SseEmitter.SseEventBuilder event) {
+            if (!subscriptions.contains(this)) {
+                return;
+            }
+            // a consumer that cannot keep up is dropped instead of buffering without limit, the client reconnects
+            if (pendingCount.incrementAndGet() > maxPendingEvents) {
+                logger.warn("Dropping availability subscriber for {} to {}, {} events pending", startDate, endDate, maxPendingEvents);
+                unregister(this);
+                discardPendingEvents();
+                // completed by the drain, complete() would wait behind a blocked send on this thread
+                scheduleDrain();
+                return;
+            }
+            pendingEvents.add(event);
+            scheduleDrain();
+        }
+
+        private void scheduleDrain() {
+            if (draining.compareAndSet(false, true)) {
+                try {
+                    senderExecutor.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    draining.set(false);
+                }
+            }
+        }
+
+        private void discardPendingEvents() {
+            pendingEvents.clear();
+            pendingCount.set(0);
+        }
+
+        private void drain() {
+            try {
+                SseEmitter.SseEventBuilder event;
+                while (subscriptions.contains(this) && (event = pendingEvents.poll()) != null) {
+                    pendingCount.decrementAndGet();
+                    sendStartedAt = System.nanoTime();
+                    emitter.send(event);
+                    sendStartedAt = 0;
+                }
+                if (!subscriptions.contains(this) && closed.compareAndSet(false, true)) {
+                    // dropped as too slow or stalled, completed from here since complete() waits for a blocked send
+                    discardPendingEvents();
+                    emitter.complete();
+                }
+            } catch (IOException | IllegalStateException e) {
+                unregister(this);
+                discardPendingEvents();
+                closed.set(true);
+                emitter.completeWithError(e);
+            } finally {
+                sendStartedAt = 0;
+                draining.set(false);
+            }
+            // an event may have been queued, or the subscriber dropped, between the last check and releasing the flag
+            if (subscriptions.contains(this) ? !pendingEvents.isEmpty() : !closed.get()) {
+                scheduleDrain();
+            }
+        }
+    }
+}
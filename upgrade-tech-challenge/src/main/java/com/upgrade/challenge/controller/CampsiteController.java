@@ -2,99 +2,237 @@ package com.upgrade.challenge.controller;
 
 import com.upgrade.challenge.api.ReservationApi;
 import com.upgrade.challenge.api.model.AvailabilityResponse;
+import com.upgrade.challenge.api.model.AvailableWindow;
+import com.upgrade.challenge.api.model.AvailableWindowsResponse;
+import com.upgrade.challenge.api.model.CapacityResponse;
 import com.upgrade.challenge.api.model.ReservationApiModel;
+import com.upgrade.challenge.api.model.ReservationPage;
+import com.upgrade.challenge.api.model.ReservationResponse;
 import com.upgrade.challenge.impl.exception.ReservationException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.web.HttpMediaTypeNotAcceptableException;
+import org.springframework.web.accept.ContentNegotiationManager;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.HttpMessageConverter;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.IOException;
 import java.time.LocalDate;
+import java.time.Period;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 @RestController
 @RequestMapping("/api/v1/campsite")
 public class CampsiteController {
 
+    private static final Period AVAILABILITY_DEFAULT_SPAN = Period.ofMonths(1);
+    private static final Period AVAILABILITY_MAX_SPAN = Period.ofMonths(2);
+    private static final Period WINDOW_SEARCH_SPAN = Period.ofYears(1);
+    private static final String STREAM_ERROR_EVENT = "error";
+
+    // immutable, shared by every failed request instead of being rebuilt each time
+    private static final ReservationResponse FAILED_TO_CREATE_RESPONSE = ReservationResponse.error("Failed to create reservation");
+    private static final ReservationResponse FAILED_TO_UPDATE_RESPONSE = ReservationResponse.error("Failed to update reservation");
+
     @Autowired
     private ReservationApi reservationApi;
 
+    @Autowired
+    private AvailabilityStreamRegistry availabilityStreamRegistry;
+
+    @Autowired
+    private ContentNegotiationManager contentNegotiationManager;
+
+    @Autowired
+    private RequestMappingHandlerAdapter handlerAdapter;
+
+    @Value("${campsite.availability.cache-max-age:5}")
+    private long availabilityCacheMaxAge;
+
+    @Value("${campsite.availability.stream.timeout:1800000}")
+    private long availabilityStreamTimeout;
+
     private Logger logger = LoggerFactory.getLogger(CampsiteController.class);
 
 
     @GetMapping("/availability")
     public ResponseEntity<AvailabilityResponse> checkCampsiteAvailability(
             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
-            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate) {
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate,
+            NativeWebRequest request) throws HttpMediaTypeNotAcceptableException {
 
-        if (startDate == null) {
-            startDate = LocalDate.now().plusDays(1); // minimum 1 day ahead of arrival
+        Optional<DateWindow> window = DateWindow.resolve(startDate, endDate, AVAILABILITY_DEFAULT_SPAN, AVAILABILITY_MAX_SPAN);
+        if (window.isEmpty()) {
+            return new ResponseEntity<>(new AvailabilityResponse(Collections.emptyList(), Optional.of(DateWindow.END_BEFORE_START_MESSAGE)), HttpStatus.BAD_REQUEST);
         }
-        if (endDate == null) {
-            endDate = startDate.plusMonths(1); // default availability range: 1 month
+        startDate = window.get().getStartDate();
+        endDate = window.get().getEndDate();
+
+        // the calendar version is kept in memory, so a matching If-None-Match is answered without any query; no Last-Modified is
+        // sent as its one second precision would hide a second change within the same second
+        CacheControl cacheControl = CacheControl.maxAge(availabilityCacheMaxAge, TimeUnit.SECONDS).cachePublic().mustRevalidate();
+        long calendarVersion = reservationApi.getCalendarVersion(startDate, endDate);
+        // a strong ETag identifies the exact bytes, so the JSON, CBOR and Smile bodies of one version each get their own
+        String eTag = String.format("\"%s-%s-%s-%s\"", calendarVersion, startDate, endDate, representationOf(request, AvailabilityResponse.class));
+        if (request.checkNotModified(eTag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).cacheControl(cacheControl).varyBy(HttpHeaders.ACCEPT).build();
         }
 
-        // error if endDate is before startDate
-        if (endDate.isBefore(startDate)) {
-            return new ResponseEntity<>(new AvailabilityResponse(Collections.emptyList(), Optional.of("End date cannot be before Start Date")), HttpStatus.BAD_REQUEST);
+        System.out.println(startDate + " " + endDate);
+        List<String> daysAvailableList = reservationApi.getAvailabilityDays(startDate, endDate);
+
+        if (daysAvailableList.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).cacheControl(cacheControl).varyBy(HttpHeaders.ACCEPT)
+                    .body(new AvailabilityResponse(Collections.emptyList(), Optional.of(String.format("No availability from %s to %s", startDate, endDate))));
         }
+        return ResponseEntity.ok().cacheControl(cacheControl).varyBy(HttpHeaders.ACCEPT).body(new AvailabilityResponse(daysAvailableList, Optional.empty()));
+    }
 
-        // max 2 months spread of availability - to limit user upper bound
-        if (startDate.plusMonths(2).isBefore(endDate)) {
-            endDate = startDate.plusMonths(2);
+    @GetMapping("/availability/capacity")
+    public ResponseEntity<CapacityResponse> checkCampsiteCapacity(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate) {
+
+        Optional<DateWindow> window = DateWindow.resolve(startDate, endDate, AVAILABILITY_DEFAULT_SPAN, AVAILABILITY_MAX_SPAN);
+        if (window.isEmpty()) {
+            return new ResponseEntity<>(new CapacityResponse(Collections.emptyMap(), Optional.of(DateWindow.END_BEFORE_START_MESSAGE)), HttpStatus.BAD_REQUEST);
         }
 
-        // ensure startDate is at least tomorrow
-        if (startDate.isBefore(LocalDate.now().plusDays(1))) {
-            startDate = LocalDate.now().plusDays(1);
+        return new ResponseEntity<>(new CapacityResponse(reservationApi.getRemainingUnits(window.get().getStartDate(), window.get().getEndDate()), Optional.empty()), HttpStatus.OK);
+    }
+
+    @GetMapping("/availability/windows")
+    public ResponseEntity<AvailableWindowsResponse> findAvailableWindows(
+            @RequestParam int nights,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate,
+            @RequestParam(defaultValue = "5") int count) {
+
+        // search horizon: up to 1 year
+        Optional<DateWindow> window = DateWindow.resolve(startDate, endDate, WINDOW_SEARCH_SPAN, WINDOW_SEARCH_SPAN);
+        if (window.isEmpty()) {
+            return new ResponseEntity<>(new AvailableWindowsResponse(Collections.emptyList(), Optional.of(DateWindow.END_BEFORE_START_MESSAGE)), HttpStatus.BAD_REQUEST);
         }
+        startDate = window.get().getStartDate();
+        endDate = window.get().getEndDate();
 
-        System.out.println(startDate + " " + endDate);
-        List<String> daysAvailableList = reservationApi.getAvailabilityDays(startDate, endDate);
+        try {
+            List<AvailableWindow> availableWindowList = reservationApi.findAvailableWindows(startDate, endDate, nights, count);
+            if (availableWindowList.isEmpty()) {
+                return new ResponseEntity<>(new AvailableWindowsResponse(Collections.emptyList(), Optional.of(String.format("No %s night(s) availability from %s to %s", nights, startDate, endDate))), HttpStatus.BAD_REQUEST);
+            }
+            return new ResponseEntity<>(new AvailableWindowsResponse(availableWindowList, Optional.empty()), HttpStatus.OK);
+        } catch (ReservationException e) {
+            return new ResponseEntity<>(new AvailableWindowsResponse(Collections.emptyList(), Optional.of(e.getMessage())), HttpStatus.BAD_REQUEST);
+        }
+    }
 
-        if (daysAvailableList.isEmpty()) {
-            return new ResponseEntity<>(new AvailabilityResponse(Collections.emptyList(), Optional.of(String.format("No availability from %s to %s", startDate, endDate))), HttpStatus.BAD_REQUEST);
+    @GetMapping(value = "/availability/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamCampsiteAvailability(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate) throws IOException {
+
+        Optional<DateWindow> window = DateWindow.resolve(startDate, endDate, AVAILABILITY_DEFAULT_SPAN, AVAILABILITY_MAX_SPAN);
+        if (window.isEmpty()) {
+            // the response is an event stream either way, the error goes out as a single event in the /availability error shape
+            SseEmitter emitter = new SseEmitter();
+            emitter.send(SseEmitter.event().name(STREAM_ERROR_EVENT)
+                    .data(new AvailabilityResponse(Collections.emptyList(), Optional.of(DateWindow.END_BEFORE_START_MESSAGE)), MediaType.APPLICATION_JSON));
+            emitter.complete();
+            return ResponseEntity.badRequest().cacheControl(CacheControl.noStore()).body(emitter);
+        }
+
+        // only changes are pushed, clients load the initial state from /availability
+        SseEmitter emitter = new SseEmitter(availabilityStreamTimeout);
+        availabilityStreamRegistry.register(emitter, window.get().getStartDate(), window.get().getEndDate());
+        return ResponseEntity.ok().cacheControl(CacheControl.noStore()).body(emitter);
+    }
+
+    @GetMapping("/reservation")
+    public ResponseEntity<ReservationPage> findReservationsByEmail(
+            @RequestParam String email,
+            @RequestParam(required = false) Boolean cancelled,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate fromDate,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate toDate,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit) {
+        try {
+            return ResponseEntity.ok(reservationApi.findReservationsByEmail(email, cancelled, fromDate, toDate, cursor, limit));
+        } catch (ReservationException e) {
+            return new ResponseEntity<>(new ReservationPage(Collections.emptyList(), Optional.empty(), Optional.of(e.getMessage())), HttpStatus.BAD_REQUEST);
         }
-        return new ResponseEntity<>(new AvailabilityResponse(daysAvailableList, Optional.empty()), HttpStatus.OK);
     }
 
     @PostMapping("/reservation")
-    public ResponseEntity<?> createReservation(@RequestBody ReservationApiModel reservation) {
+    public ResponseEntity<ReservationResponse> createReservation(@RequestBody ReservationApiModel reservation) {
         try {
             Optional<Long> reservationId = reservationApi.reserve(reservation);
-            return reservationId.map(aLong -> new ResponseEntity<>(String.format("Reservation created with booking ID: %s", aLong), HttpStatus.OK)).orElseGet(() -> new ResponseEntity<>("Failed to create reservation", HttpStatus.BAD_REQUEST));
+            return reservationId.map(aLong -> new ResponseEntity<>(ReservationResponse.success(aLong), HttpStatus.OK)).orElseGet(() -> new ResponseEntity<>(FAILED_TO_CREATE_RESPONSE, HttpStatus.BAD_REQUEST));
         } catch (ReservationException e) {
-            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+            return new ResponseEntity<>(ReservationResponse.error(e.getMessage()), HttpStatus.BAD_REQUEST);
         }
     }
 
     @PutMapping("/reservation/{reservationId}")
-    public ResponseEntity<?> updateReservation(
+    public ResponseEntity<ReservationResponse> updateReservation(
             @PathVariable Long reservationId,
             @RequestBody ReservationApiModel updatedReservation) {
 
         try {
-            reservationApi.updateReservation(reservationId, updatedReservation);
+            Optional<Long> updatedReservationId = reservationApi.updateReservation(reservationId, updatedReservation);
+            return updatedReservationId.map(aLong -> new ResponseEntity<>(ReservationResponse.success(aLong), HttpStatus.OK)).orElseGet(() -> new ResponseEntity<>(FAILED_TO_UPDATE_RESPONSE, HttpStatus.BAD_REQUEST));
         } catch (ReservationException e) {
-            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+            return new ResponseEntity<>(ReservationResponse.error(e.getMessage()), HttpStatus.BAD_REQUEST);
         }
-        return ResponseEntity.ok("Reservation updated successfully!");
     }
 
     @DeleteMapping("/reservation/{bookingId}")
-    public ResponseEntity<?> cancelReservation(@PathVariable Long bookingId) {
+    public ResponseEntity<ReservationResponse> cancelReservation(@PathVariable Long bookingId) {
 
         try {
             reservationApi.cancelReservation(bookingId);
         } catch (ReservationException e) {
-            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+            return new ResponseEntity<>(ReservationResponse.error(e.getMessage()), HttpStatus.BAD_REQUEST);
         }
 
-        return ResponseEntity.ok("Reservation canceled successfully.");
+        return ResponseEntity.ok(ReservationResponse.success(bookingId));
+    }
+
+    // the 304 check runs before any body is written, so the representation is picked from the registered message
+    // converters the way Spring MVC picks it: the accepted types come sorted by quality then specificity, and the first
+    // concrete type, the more specific of an accepted type and a type a converter writes the body as, wins
+    private String representationOf(NativeWebRequest request, Class<?> bodyType) throws HttpMediaTypeNotAcceptableException {
+        List<MediaType> producibleTypes = new ArrayList<>();
+        for (HttpMessageConverter<?> converter : handlerAdapter.getMessageConverters()) {
+            if (converter.canWrite(bodyType, null)) {
+                producibleTypes.addAll(converter.getSupportedMediaTypes(bodyType));
+            }
+        }
+        for (MediaType acceptedType : contentNegotiationManager.resolveMediaTypes(request)) {
+            for (MediaType producibleType : producibleTypes) {
+                if (acceptedType.isCompatibleWith(producibleType)) {
+                    MediaType representation = acceptedType.isLessSpecific(producibleType) ? producibleType : acceptedType;
+                    if (representation.isConcrete()) {
+                        return representation.getSubtype();
+                    }
+                }
+            }
+        }
+        throw new HttpMediaTypeNotAcceptableException(producibleTypes);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,42 @@
+package com.upgrade.challenge.controller;
+
+import lombok.Value;
+
+import java.time.LocalDate;
+import java.time.Period;
+import java.util.Optional;
+
+// resolves the optional startDate / endDate of the availability endpoints the same way for all of them: the start
+// defaults to tomorrow and the end to the start plus defaultSpan, an end before the start is rejected, then the window
+// is cut to maxSpan and its start moved to tomorrow at the earliest
+@Value
+class DateWindow {
+
+    static final String END_BEFORE_START_MESSAGE = "End date cannot be before Start Date";
+
+    LocalDate startDate;
+    LocalDate endDate;
+
+    static Optional<DateWindow> resolve(LocalDate startDate, LocalDate endDate, Period defaultSpan, Period maxSpan) {
+        LocalDate tomorrow = LocalDate.now().plusDays(1); // minimum 1 day ahead of arrival
+        if (startDate == null) {
+            startDate = tomorrow;
+        }
+        if (endDate == null) {
+            endDate = startDate.plus(defaultSpan);
+        }
+
+        if (endDate.isBefore(startDate)) {
+            return Optional.empty();
+        }
+
+        // limit the user upper bound
+        if (startDate.plus(maxSpan).isBefore(endDate)) {
+            endDate = startDate.plus(maxSpan);
+        }
+        if (startDate.isBefore(tomorrow)) {
+            startDate = tomorrow;
+        }
+        return Optional.of(new DateWindow(startDate, endDate));
+    }
+}
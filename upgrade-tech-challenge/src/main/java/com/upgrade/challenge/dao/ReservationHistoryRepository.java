@@ -0,0 +1,23 @@
+package com.upgrade.challenge.dao;
+
+import com.upgrade.challenge.dao.model.ReservationHistory;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.util.List;
+
+@Repository
+public interface ReservationHistoryRepository extends JpaRepository<ReservationHistory, Long> {
+    // same keyset seek as ReservationRepository.findByEmailAfter, served by the (email, start_date, id) history index
+    @Query("SELECT r FROM ReservationHistory r WHERE r.email = :email " +
+            "AND r.startDate >= :afterStartDate AND (r.startDate > :afterStartDate OR r.id > :afterId) " +
+            "AND (:toDate IS NULL OR r.startDate <= :toDate) " +
+            "AND (:cancelled IS NULL OR r.isCancelled = :cancelled) " +
+            "ORDER BY r.startDate, r.id")
+    List<ReservationHistory> findByEmailAfter(@Param("email") String email, @Param("afterStartDate") LocalDate afterStartDate, @Param("afterId") Long afterId,
+                                              @Param("toDate") LocalDate toDate, @Param("cancelled") Boolean cancelled, Pageable pageable);
+}
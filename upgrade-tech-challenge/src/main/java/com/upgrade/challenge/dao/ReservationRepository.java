@@ -1,9 +1,13 @@
 package com.upgrade.challenge.dao;
 
 import com.upgrade.challenge.dao.model.Reservation;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDate;
 import java.util.List;
@@ -12,4 +16,42 @@ import java.util.List;
 public interface ReservationRepository extends JpaRepository<Reservation, Long> {
     @Query(value = "SELECT * FROM reservation WHERE end_date >= ?1 AND start_date <= ?2 AND is_cancelled = false", nativeQuery = true)
     List<Reservation> findActiveReservationBetweenDates(LocalDate startDate, LocalDate endDate);
+
+    @Query(value = "SELECT * FROM reservation WHERE end_date > ?1 AND is_cancelled = false", nativeQuery = true)
+    List<Reservation> findActiveReservationEndingAfter(LocalDate date);
+
+    // keyset pagination on (startDate, id), the leading startDate >= bound keeps the seek a range scan of the email index
+    @Query("SELECT r FROM Reservation r WHERE r.email = :email " +
+            "AND r.startDate >= :afterStartDate AND (r.startDate > :afterStartDate OR r.id > :afterId) " +
+            "AND (:toDate IS NULL OR r.startDate <= :toDate) " +
+            "AND (:cancelled IS NULL OR r.isCancelled = :cancelled) " +
+            "ORDER BY r.startDate, r.id")
+    List<Reservation> findByEmailAfter(@Param("email") String email, @Param("afterStartDate") LocalDate afterStartDate, @Param("afterId") Long afterId,
+                                       @Param("toDate") LocalDate toDate, @Param("cancelled") Boolean cancelled, Pageable pageable);
+
+    // compare-and-set on the row: only the caller that sees 1 row changed owns the transition and may give nights back,
+    // the dates are part of the condition so a concurrent update of the same reservation makes it fail too
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query(value = "UPDATE reservation SET is_cancelled = true WHERE id = ?1 AND is_cancelled = false AND start_date = ?2 AND end_date = ?3", nativeQuery = true)
+    int cancelIfUnchanged(Long id, LocalDate startDate, LocalDate endDate);
+
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query(value = "UPDATE reservation SET email = ?4, full_name = ?5, start_date = ?6, end_date = ?7 " +
+            "WHERE id = ?1 AND is_cancelled = false AND start_date = ?2 AND end_date = ?3", nativeQuery = true)
+    int updateIfUnchanged(Long id, LocalDate expectedStartDate, LocalDate expectedEndDate, String email, String fullName, LocalDate startDate, LocalDate endDate);
+
+    // walks the (end_date, id) index from its oldest end, a batch reads only the rows it returns whatever the table size
+    @Query(value = "SELECT id FROM reservation WHERE end_date < ?1 ORDER BY end_date, id LIMIT ?2", nativeQuery = true)
+    List<Long> findArchivableReservationIds(LocalDate endDateBefore, int limit);
+
+    @Modifying
+    @Query(value = "INSERT INTO reservation_history (id, email, full_name, start_date, end_date, is_cancelled, archived_at) " +
+            "SELECT id, email, full_name, start_date, end_date, is_cancelled, CURRENT_TIMESTAMP FROM reservation WHERE id IN ?1", nativeQuery = true)
+    int copyToHistory(List<Long> ids);
+
+    @Modifying
+    @Query(value = "DELETE FROM reservation WHERE id IN ?1", nativeQuery = true)
+    int deleteByIds(List<Long> ids);
 }
@@ -10,7 +10,11 @@ import java.time.LocalDate;
 @NoArgsConstructor
 @Setter
 @Getter
-@Table
+@Table(indexes = {
+        @Index(name = "idx_reservation_cancelled_end_date", columnList = "isCancelled, endDate"),
+        @Index(name = "idx_reservation_end_date_id", columnList = "endDate, id"),
+        @Index(name = "idx_reservation_email_start_date_id", columnList = "email, startDate, id")
+})
 public class Reservation {
 
     @Id
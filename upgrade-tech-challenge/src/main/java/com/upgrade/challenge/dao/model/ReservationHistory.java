@@ -0,0 +1,40 @@
+package com.upgrade.challenge.dao.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+// cold copy of reservations that can no longer affect availability, keeps the original id
+@Entity
+@AllArgsConstructor
+@NoArgsConstructor
+@Setter
+@Getter
+@Table(name = "reservation_history", indexes = {
+        @Index(name = "idx_reservation_history_email_start_date_id", columnList = "email, startDate, id")
+})
+public class ReservationHistory {
+
+    @Id
+    private Long id;
+
+    @Column(nullable = false)
+    private String email;
+
+    @Column(nullable = false)
+    private String fullName;
+
+    @Column(nullable = false)
+    private LocalDate startDate;
+
+    @Column(nullable = false)
+    private LocalDate endDate;
+
+    @Column(nullable = false, columnDefinition="boolean default false")
+    private boolean isCancelled;
+
+    @Column(nullable = false)
+    private LocalDateTime archivedAt;
+}
@@ -0,0 +1,44 @@
+package com.upgrade.challenge.impl;
+
+import lombok.NonNull;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// keeps a monotonically increasing version per night, versions are epoch millis bumped by at least one per change
+@Component
+public class CalendarVersionTracker {
+
+    // everything loaded before startup is considered modified at startup
+    private final long baselineVersion = System.currentTimeMillis();
+
+    private final AtomicLong lastVersion = new AtomicLong(baselineVersion);
+
+    private final ConcurrentNavigableMap<LocalDate, Long> nightVersions = new ConcurrentSkipListMap<>();
+
+    // to be called once the change is committed, for the nights startDate (inclusive) to endDate (exclusive)
+    public long touch(@NonNull final LocalDate startDate, @NonNull final LocalDate endDate) {
+        long version = nextVersion();
+        for (LocalDate date = startDate; date.isBefore(endDate); date = date.plusDays(1)) {
+            nightVersions.merge(date, version, Math::max);
+        }
+        return version;
+    }
+
+    // a version above every one handed out so far
+    public long nextVersion() {
+        return lastVersion.updateAndGet(previous -> Math.max(previous + 1, System.currentTimeMillis()));
+    }
+
+    // latest version of any night from startDate to endDate, both inclusive
+    public long getVersion(@NonNull final LocalDate startDate, @NonNull final LocalDate endDate) {
+        long version = baselineVersion;
+        for (Long nightVersion : nightVersions.subMap(startDate, true, endDate, true).values()) {
+            version = Math.max(version, nightVersion);
+        }
+        return version;
+    }
+}
@@ -0,0 +1,136 @@
+package com.upgrade.challenge.impl;
+
+import com.upgrade.challenge.dao.ReservationRepository;
+import com.upgrade.challenge.dao.model.Reservation;
+import lombok.NonNull;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+// remaining units per night, the in-memory admission control for bookings: every night is an independent atomic
+// counter so concurrent bookings of different nights never contend, and a booking takes all its nights or none.
+// a night flipping between full and available takes a new calendar version in the same compare-and-set, so the
+// flips of a night are versioned in the order they happened whichever thread publishes them first
+@Component
+public class NightCapacityLedger implements SmartInitializingSingleton {
+
+    @Autowired
+    ReservationRepository repository;
+
+    @Autowired
+    CalendarVersionTracker calendarVersionTracker;
+
+    @Value("${campsite.capacity:1}")
+    private int capacity;
+
+    private final ConcurrentNavigableMap<LocalDate, AtomicReference<NightUnits>> remainingUnits = new ConcurrentSkipListMap<>();
+
+    // seed from the active future reservations once the data is loaded, before any request is served
+    @Override
+    public void afterSingletonsInstantiated() {
+        LocalDate today = LocalDate.now();
+        for (Reservation reservation : repository.findActiveReservationEndingAfter(today)) {
+            LocalDate from = reservation.getStartDate().isBefore(today) ? today : reservation.getStartDate();
+            for (LocalDate date = from; date.isBefore(reservation.getEndDate()); date = date.plusDays(1)) {
+                addUnits(unitsOf(date), -1);
+            }
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getRemainingUnits(@NonNull final LocalDate night) {
+        AtomicReference<NightUnits> units = remainingUnits.get(night);
+        return units == null ? capacity : units.get().getRemaining();
+    }
+
+    // takes one unit of every night, or none of them if any night is full; returns the nights whose last unit was
+    // taken, i.e. the nights that just became unavailable, with the version of that flip, or empty if nothing was taken
+    @NonNull
+    public Optional<Map<LocalDate, Long>> tryAcquire(@NonNull final Collection<LocalDate> nights) {
+        List<AtomicReference<NightUnits>> acquired = new ArrayList<>(nights.size());
+        Map<LocalDate, Long> filledNights = new TreeMap<>();
+        for (LocalDate night : nights) {
+            AtomicReference<NightUnits> units = unitsOf(night);
+            NightUnits taken = addUnits(units, -1);
+            if (taken == null) {
+                acquired.forEach(acquiredUnits -> addUnits(acquiredUnits, 1));
+                return Optional.empty();
+            }
+            acquired.add(units);
+            if (taken.getRemaining() == 0) {
+                filledNights.put(night, taken.getFlipVersion());
+            }
+        }
+        return Optional.of(filledNights);
+    }
+
+    // gives one unit of every night back, returns the nights that were full until now, i.e. that just became available,
+    // with the version of that flip
+    @NonNull
+    public Map<LocalDate, Long> release(@NonNull final Collection<LocalDate> nights) {
+        Map<LocalDate, Long> reopenedNights = new TreeMap<>();
+        for (LocalDate night : nights) {
+            // a night without a counter was never taken through the ledger (e.g. already evicted), nothing to give back
+            AtomicReference<NightUnits> units = remainingUnits.get(night);
+            NightUnits released = units == null ? null : addUnits(units, 1);
+            if (released != null && released.getRemaining() == 1) {
+                reopenedNights.put(night, released.getFlipVersion());
+            }
+        }
+        return reopenedNights;
+    }
+
+    @Scheduled(cron = "${campsite.capacity.eviction-cron:0 1 0 * * *}")
+    public void evictPastNights() {
+        remainingUnits.headMap(LocalDate.now()).clear();
+    }
+
+    void clear() {
+        remainingUnits.clear();
+    }
+
+    @NonNull
+    private AtomicReference<NightUnits> unitsOf(@NonNull final LocalDate night) {
+        return remainingUnits.computeIfAbsent(night, key -> new AtomicReference<>(new NightUnits(capacity, 0)));
+    }
+
+    // a night never holds less than none or more than capacity units, even if a release is repeated; returns the new
+    // state, or null if the night was already full (delta -1) or at capacity (delta +1)
+    private NightUnits addUnits(@NonNull final AtomicReference<NightUnits> units, final int delta) {
+        for (NightUnits current = units.get(); ; current = units.get()) {
+            int remaining = current.getRemaining() + delta;
+            if (remaining < 0 || remaining > capacity) {
+                return null;
+            }
+            // a version drawn after the previous flip was written is above it, a retry draws a new one
+            long flipVersion = remaining == 0 || current.getRemaining() == 0 ? calendarVersionTracker.nextVersion() : current.getFlipVersion();
+            NightUnits next = new NightUnits(remaining, flipVersion);
+            if (units.compareAndSet(current, next)) {
+                return next;
+            }
+        }
+    }
+
+    @lombok.Value
+    private static class NightUnits {
+        int remaining;
+        // version of the last flip between full and available
+        long flipVersion;
+    }
+}
@@ -1,19 +1,27 @@
 package com.upgrade.challenge.impl;
 
 import com.upgrade.challenge.api.ReservationApi;
+import com.upgrade.challenge.api.model.AvailabilityChangedEvent;
+import com.upgrade.challenge.api.model.AvailableWindow;
 import com.upgrade.challenge.api.model.ReservationApiModel;
+import com.upgrade.challenge.api.model.ReservationDetails;
+import com.upgrade.challenge.api.model.ReservationPage;
+import com.upgrade.challenge.dao.ReservationHistoryRepository;
 import com.upgrade.challenge.dao.ReservationRepository;
 import com.upgrade.challenge.dao.model.Reservation;
+import com.upgrade.challenge.dao.model.ReservationHistory;
 import com.upgrade.challenge.impl.exception.ReservationException;
 import jakarta.annotation.Nonnull;
 import lombok.NonNull;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 
 @Service
 public class ReservationApiImpl implements ReservationApi {
@@ -21,19 +29,36 @@ public class ReservationApiImpl implements ReservationApi {
     @Autowired
     ReservationRepository repository;
 
-    private final Lock reservationLock = new ReentrantLock();
+    @Autowired
+    ReservationHistoryRepository historyRepository;
+
+    @Autowired
+    CalendarVersionTracker calendarVersionTracker;
+
+    @Autowired
+    ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    NightCapacityLedger capacityLedger;
+
+    private static final int DEFAULT_PAGE_SIZE = 20;
+    private static final int MAX_PAGE_SIZE = 100;
+    private static final String CURSOR_SEPARATOR = "_";
+    private static final int MAX_RESERVATION_NIGHTS = 3;
+    private static final int MAX_WINDOW_COUNT = 50;
+    private static final Comparator<Reservation> BY_START_DATE_AND_ID = Comparator.comparing(Reservation::getStartDate).thenComparing(Reservation::getId);
 
     @Override
     @Nonnull
     public List<String> getAvailabilityDays(@NonNull final LocalDate startDate, @NonNull final LocalDate endDate) {
         List<Reservation> reservationList = repository.findActiveReservationBetweenDates(startDate, endDate);
 
-        Set<String> reservationMap = createReservationMap(reservationList);
+        Map<String, Integer> reservationMap = createReservationMap(reservationList);
         List<String> availableDateList = new ArrayList<>(Collections.emptyList());
 
         for (LocalDate date = startDate; date.isBefore(endDate.plusDays(1)); date = date.plusDays(1)) {
-            // generate list of days, from start - end, if the date is exists on reservationList, then exclude that
-            if (!reservationMap.contains(date.toString())) {
+            // generate list of days, from start - end, if the date is fully booked on reservationList, then exclude that
+            if (reservationMap.getOrDefault(date.toString(), 0) < capacityLedger.getCapacity()) {
                 availableDateList.add(date.toString());
             }
         }
@@ -41,29 +66,72 @@ public class ReservationApiImpl implements ReservationApi {
         return availableDateList;
     }
 
+    @Override
+    @Nonnull
+    public List<AvailableWindow> findAvailableWindows(@NonNull final LocalDate startDate, @NonNull final LocalDate endDate, final int nights, final int count) throws ReservationException {
+        if (nights < 1 || nights > MAX_RESERVATION_NIGHTS) {
+            throw new ReservationException(String.format("Number of nights must be between 1 and %s!", MAX_RESERVATION_NIGHTS));
+        }
+        if (count < 1 || count > MAX_WINDOW_COUNT) {
+            throw new ReservationException(String.format("Number of windows must be between 1 and %s!", MAX_WINDOW_COUNT));
+        }
+
+        // a window already behind us once its start moved to tomorrow
+        if (!endDate.isAfter(startDate)) {
+            return Collections.emptyList();
+        }
+
+        // one bit per night from startDate (inclusive) to endDate (exclusive), set when taken
+        final int horizon = (int) ChronoUnit.DAYS.between(startDate, endDate);
+        BitSet occupancy = createOccupancy(repository.findActiveReservationBetweenDates(startDate, endDate), startDate, horizon);
+
+        // jump from free run to free run, every start inside a run long enough is a window
+        List<AvailableWindow> windowList = new ArrayList<>();
+        int runStart = occupancy.nextClearBit(0);
+        while (runStart + nights <= horizon && windowList.size() < count) {
+            int nextTaken = occupancy.nextSetBit(runStart);
+            int runEnd = nextTaken < 0 ? horizon : Math.min(nextTaken, horizon);
+            for (int night = runStart; night + nights <= runEnd && windowList.size() < count; night++) {
+                windowList.add(new AvailableWindow(startDate.plusDays(night).toString(), startDate.plusDays(night + nights).toString()));
+            }
+            runStart = occupancy.nextClearBit(runEnd);
+        }
+        return windowList;
+    }
+
     @Override
     public Optional<Long> reserve(@NonNull final ReservationApiModel reservation) throws ReservationException {
+        // check if the intended days are valid
+        if (!isReservationValid(reservation)) {
+            return Optional.empty();
+            // check if dates available
+        } else if (!isAvailable(reservation.getStartDate(), reservation.getEndDate())) {
+            return Optional.empty();
+        }
+
+        // take a unit of every night atomically, concurrent bookings of the same nights cannot both pass
+        Set<LocalDate> nights = createNightSet(reservation.getStartDate(), reservation.getEndDate());
+        Optional<Map<LocalDate, Long>> filledNights = capacityLedger.tryAcquire(nights);
+        if (filledNights.isEmpty()) {
+            return Optional.empty();
+        }
+
+        Reservation newReservation;
         try {
-            reservationLock.lock(); // get lock for sync access
-
-            // check if the intended days are valid
-            if (!isReservationValid(reservation)) {
-                return Optional.empty();
-                // check if dates available
-            } else if (!isAvailable(reservation.getStartDate(), reservation.getEndDate())) {
-                return Optional.empty();
-            } else {
-                Reservation newReservation = repository.save(adaptReservationApiModelToReservationDaoModel(reservation));
-                return Optional.of(newReservation.getId());
-            }
-        } finally {
-            reservationLock.unlock(); // release the lock
+            newReservation = repository.save(adaptReservationApiModelToReservationDaoModel(reservation));
+        } catch (RuntimeException e) {
+            capacityLedger.release(nights);
+            throw e;
         }
+        calendarVersionTracker.touch(newReservation.getStartDate(), newReservation.getEndDate());
+        // with pooled capacity only the nights that just became full flip to taken
+        publishAvailabilityChange(Collections.emptyMap(), filledNights.get());
+        return Optional.of(newReservation.getId());
     }
 
     @Override
     public void cancelReservation(@NonNull final Long id) throws ReservationException {
-        Reservation existingReservation = repository.findById(id).orElseThrow(() ->
+        Reservation existingReservation = findReservation(id).orElseThrow(() ->
                 new ReservationException(String.format("Unable to find reservation with Id : %s", id)));
 
         // Cannot cancel previously cancelled reservation
@@ -71,8 +139,19 @@ public class ReservationApiImpl implements ReservationApi {
             throw new ReservationException(String.format("Reservation with ID : %s, has been cancelled previously!", id));
         }
 
-        existingReservation.setCancelled(true);
-        repository.save(existingReservation);
+        // ended stays may already be archived, and their nights cannot be given back
+        if (hasEnded(existingReservation)) {
+            throw new ReservationException(String.format("Reservation with ID : %s, has already ended!", id));
+        }
+
+        // concurrent cancels or updates of the same reservation all read it active, only one of them may give the nights back
+        if (repository.cancelIfUnchanged(id, existingReservation.getStartDate(), existingReservation.getEndDate()) == 0) {
+            throw concurrentModificationException(id);
+        }
+        Set<LocalDate> nights = createNightSet(existingReservation.getStartDate(), existingReservation.getEndDate());
+        Map<LocalDate, Long> reopenedNights = capacityLedger.release(nights);
+        calendarVersionTracker.touch(existingReservation.getStartDate(), existingReservation.getEndDate());
+        publishAvailabilityChange(reopenedNights, Collections.emptyMap());
     }
 
     @Override
@@ -83,7 +162,7 @@ public class ReservationApiImpl implements ReservationApi {
             return Optional.empty();
         }
 
-        Reservation existingReservation = repository.findById(id).orElseThrow(() ->
+        Reservation existingReservation = findReservation(id).orElseThrow(() ->
                 new ReservationException(String.format("Unable to find reservation with Id : %s", id)));
 
         // ensure the existing reservation is not cancelled yet
@@ -91,28 +170,122 @@ public class ReservationApiImpl implements ReservationApi {
             throw new ReservationException("Unable to update a cancelled reservation!");
         }
 
-        // make sure the new reservation dates are available
-        if (!isAvailable(newReservation.getStartDate(), newReservation.getEndDate())) {
+        if (hasEnded(existingReservation)) {
+            throw new ReservationException("Unable to update a reservation that has already ended!");
+        }
+
+        // make sure the new reservation dates are available, the reservation being moved does not compete with itself
+        List<Reservation> otherReservationList = repository.findActiveReservationBetweenDates(newReservation.getStartDate(), newReservation.getEndDate())
+                .stream().filter(reservation -> !id.equals(reservation.getId())).toList();
+        if (!hasRoom(otherReservationList, newReservation.getStartDate(), newReservation.getEndDate())) {
+            throw new ReservationException("New reservation dates are not available anymore!");
+        }
+
+        // only the nights outside the overlap of old and new dates change hands
+        Set<LocalDate> freedNights = createNightSet(existingReservation.getStartDate(), existingReservation.getEndDate());
+        Set<LocalDate> takenNights = createNightSet(newReservation.getStartDate(), newReservation.getEndDate());
+        Set<LocalDate> overlap = new TreeSet<>(freedNights);
+        overlap.retainAll(takenNights);
+        freedNights.removeAll(overlap);
+        takenNights.removeAll(overlap);
+
+        Optional<Map<LocalDate, Long>> filledNights = capacityLedger.tryAcquire(takenNights);
+        if (filledNights.isEmpty()) {
             throw new ReservationException("New reservation dates are not available anymore!");
         }
 
-        // cancel the existing reservation
-        cancelReservation(existingReservation.getId());
+        int updated;
+        try {
+            // move the reservation to the new dates, unless it was cancelled or modified since it was read
+            updated = repository.updateIfUnchanged(id, existingReservation.getStartDate(), existingReservation.getEndDate(),
+                    newReservation.getEmail(), newReservation.getFullName(), newReservation.getStartDate(), newReservation.getEndDate());
+        } catch (RuntimeException e) {
+            capacityLedger.release(takenNights);
+            throw e;
+        }
+        if (updated == 0) {
+            capacityLedger.release(takenNights);
+            throw concurrentModificationException(id);
+        }
+        Map<LocalDate, Long> reopenedNights = capacityLedger.release(freedNights);
+        calendarVersionTracker.touch(existingReservation.getStartDate(), existingReservation.getEndDate());
+        calendarVersionTracker.touch(newReservation.getStartDate(), newReservation.getEndDate());
+        publishAvailabilityChange(reopenedNights, filledNights.get());
 
-        // save the new reservation, return the id
-        return Optional.of(repository.save(adaptReservationApiModelToReservationDaoModel(newReservation, existingReservation.getId())).getId());
+        return Optional.of(id);
     }
 
     @Override
-    public Boolean isAvailable(@NonNull final LocalDate startDate, @NonNull final LocalDate endDate) {
-        List<Reservation> reservationList = repository.findActiveReservationBetweenDates(startDate, endDate);
-        Set<String> reservationMap = createReservationMap(reservationList);
-        for (LocalDate date = startDate; date.isBefore(endDate); date = date.plusDays(1)) {
-            if (reservationMap.contains(date.toString())) {
-                return false;
+    public Optional<Reservation> findReservation(@NonNull final Long id) {
+        // archived reservations are no longer in the live table, fall back to the history table
+        return repository.findById(id).or(() -> historyRepository.findById(id).map(this::adaptReservationHistoryToReservation));
+    }
+
+    @Override
+    public ReservationPage findReservationsByEmail(@NonNull final String email, final Boolean cancelled, final LocalDate fromDate, final LocalDate toDate,
+                                                   final String cursor, final Integer limit) throws ReservationException {
+        final int pageSize = null == limit ? DEFAULT_PAGE_SIZE : limit;
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+            throw new ReservationException(String.format("Page size must be between 1 and %s!", MAX_PAGE_SIZE));
+        }
+
+        // first page starts right before fromDate, later pages right after the last (startDate, id) returned
+        LocalDate afterStartDate = null == fromDate ? LocalDate.EPOCH : fromDate;
+        long afterId = 0L;
+        if (null != cursor) {
+            String[] cursorParts = cursor.split(CURSOR_SEPARATOR);
+            if (cursorParts.length != 2) {
+                throw new ReservationException(String.format("Invalid cursor : %s", cursor));
+            }
+            try {
+                LocalDate cursorStartDate = LocalDate.parse(cursorParts[0]);
+                if (!cursorStartDate.isBefore(afterStartDate)) {
+                    afterStartDate = cursorStartDate;
+                    afterId = Long.parseLong(cursorParts[1]);
+                }
+            } catch (DateTimeParseException | NumberFormatException e) {
+                throw new ReservationException(String.format("Invalid cursor : %s", cursor), e);
             }
         }
-        return true;
+
+        // ended stays live in reservation_history, the page merges both tables on (startDate, id), ids are shared as
+        // archival keeps them. Live rows are read first: a reservation archived between the two reads then comes back
+        // from both and is kept once, instead of being missed by both. One extra row tells whether there is a next page
+        PageRequest pageRequest = PageRequest.of(0, pageSize + 1);
+        Map<Long, Reservation> reservationsById = new HashMap<>();
+        for (Reservation reservation : repository.findByEmailAfter(email, afterStartDate, afterId, toDate, cancelled, pageRequest)) {
+            reservationsById.put(reservation.getId(), reservation);
+        }
+        for (ReservationHistory reservationHistory : historyRepository.findByEmailAfter(email, afterStartDate, afterId, toDate, cancelled, pageRequest)) {
+            reservationsById.putIfAbsent(reservationHistory.getId(), adaptReservationHistoryToReservation(reservationHistory));
+        }
+        List<Reservation> reservationList = reservationsById.values().stream().sorted(BY_START_DATE_AND_ID).limit(pageSize + 1).toList();
+        if (reservationList.size() <= pageSize) {
+            return new ReservationPage(adaptReservationsToReservationDetails(reservationList), Optional.empty(), Optional.empty());
+        }
+        List<Reservation> page = reservationList.subList(0, pageSize);
+        Reservation last = page.get(pageSize - 1);
+        return new ReservationPage(adaptReservationsToReservationDetails(page), Optional.of(last.getStartDate() + CURSOR_SEPARATOR + last.getId()), Optional.empty());
+    }
+
+    @Override
+    @Nonnull
+    public Map<String, Integer> getRemainingUnits(@NonNull final LocalDate startDate, @NonNull final LocalDate endDate) {
+        Map<String, Integer> result = new LinkedHashMap<>();
+        for (LocalDate date = startDate; date.isBefore(endDate.plusDays(1)); date = date.plusDays(1)) {
+            result.put(date.toString(), Math.max(0, capacityLedger.getRemainingUnits(date)));
+        }
+        return result;
+    }
+
+    @Override
+    public Long getCalendarVersion(@NonNull final LocalDate startDate, @NonNull final LocalDate endDate) {
+        return calendarVersionTracker.getVersion(startDate, endDate);
+    }
+
+    @Override
+    public Boolean isAvailable(@NonNull final LocalDate startDate, @NonNull final LocalDate endDate) {
+        return hasRoom(repository.findActiveReservationBetweenDates(startDate, endDate), startDate, endDate);
     }
 
     @Override
@@ -151,7 +324,7 @@ public class ReservationApiImpl implements ReservationApi {
         }
 
         // check reservation max 3 days
-        if (startDate.plusDays(3).isBefore(endDate)) {
+        if (startDate.plusDays(MAX_RESERVATION_NIGHTS).isBefore(endDate)) {
             throw new ReservationException("Reservation exceeded 3 consecutive days!");
         }
         return true;
@@ -163,16 +336,79 @@ public class ReservationApiImpl implements ReservationApi {
     }
 
     @Nonnull
-    private Set<String> createReservationMap(@NonNull final List<Reservation> reservationList) {
-        Set<String> result = new HashSet<>();
+    private Map<String, Integer> createReservationMap(@NonNull final List<Reservation> reservationList) {
+        Map<String, Integer> result = new HashMap<>();
         for (Reservation reservation : reservationList) {
             for (LocalDate date = reservation.getStartDate(); date.isBefore(reservation.getEndDate()); date = date.plusDays(1)) {
-                result.add(date.toString());
+                result.merge(date.toString(), 1, Integer::sum);
             }
         }
         return result;
     }
 
+    private boolean hasRoom(@NonNull final List<Reservation> reservationList, @NonNull final LocalDate startDate, @NonNull final LocalDate endDate) {
+        Map<String, Integer> reservationMap = createReservationMap(reservationList);
+        for (LocalDate date = startDate; date.isBefore(endDate); date = date.plusDays(1)) {
+            if (reservationMap.getOrDefault(date.toString(), 0) >= capacityLedger.getCapacity()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean hasEnded(@NonNull final Reservation reservation) {
+        return reservation.getEndDate().isBefore(LocalDate.now());
+    }
+
+    @Nonnull
+    private ReservationException concurrentModificationException(@NonNull final Long id) {
+        if (repository.findById(id).map(Reservation::isCancelled).orElse(false)) {
+            return new ReservationException(String.format("Reservation with ID : %s, has been cancelled previously!", id));
+        }
+        return new ReservationException(String.format("Reservation with ID : %s, was modified concurrently, please retry!", id));
+    }
+
+    // published after the ledger flip, so a concurrent change of the same night may be published first; the flip
+    // versions let subscribers keep the later one
+    private void publishAvailabilityChange(@NonNull final Map<LocalDate, Long> daysAvailable, @NonNull final Map<LocalDate, Long> daysTaken) {
+        if (!daysAvailable.isEmpty() || !daysTaken.isEmpty()) {
+            eventPublisher.publishEvent(new AvailabilityChangedEvent(daysAvailable, daysTaken));
+        }
+    }
+
+    @Nonnull
+    private BitSet createOccupancy(@NonNull final List<Reservation> reservationList, @NonNull final LocalDate startDate, final int horizon) {
+        BitSet result = new BitSet(horizon);
+        final int capacity = capacityLedger.getCapacity();
+        // with pooled capacity a night is only full once enough reservations overlap it
+        int[] reservationCounts = capacity > 1 ? new int[horizon] : null;
+        for (Reservation reservation : reservationList) {
+            int from = (int) Math.max(0, ChronoUnit.DAYS.between(startDate, reservation.getStartDate()));
+            int to = (int) Math.min(horizon, ChronoUnit.DAYS.between(startDate, reservation.getEndDate()));
+            if (reservationCounts == null) {
+                if (from < to) {
+                    result.set(from, to);
+                }
+            } else {
+                for (int night = from; night < to; night++) {
+                    if (++reservationCounts[night] >= capacity) {
+                        result.set(night);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    @Nonnull
+    private Set<LocalDate> createNightSet(@NonNull final LocalDate startDate, @NonNull final LocalDate endDate) {
+        Set<LocalDate> result = new TreeSet<>();
+        for (LocalDate date = startDate; date.isBefore(endDate); date = date.plusDays(1)) {
+            result.add(date);
+        }
+        return result;
+    }
+
     @Nonnull
     private Reservation adaptReservationApiModelToReservationDaoModel(@Nonnull final ReservationApiModel reservationApiModel) {
         Reservation reservationDaoModel = new Reservation();
@@ -184,13 +420,18 @@ public class ReservationApiImpl implements ReservationApi {
     }
 
     @Nonnull
-    private Reservation adaptReservationApiModelToReservationDaoModel(@Nonnull final ReservationApiModel reservationApiModel, @Nonnull final Long id) {
-        Reservation reservationDaoModel = new Reservation();
-        reservationDaoModel.setId(id);
-        reservationDaoModel.setEmail(reservationApiModel.getEmail());
-        reservationDaoModel.setFullName(reservationApiModel.getFullName());
-        reservationDaoModel.setStartDate(reservationApiModel.getStartDate());
-        reservationDaoModel.setEndDate(reservationApiModel.getEndDate());
-        return reservationDaoModel;
+    private List<ReservationDetails> adaptReservationsToReservationDetails(@Nonnull final List<Reservation> reservationList) {
+        List<ReservationDetails> result = new ArrayList<>(reservationList.size());
+        for (Reservation reservation : reservationList) {
+            result.add(new ReservationDetails(reservation.getId(), reservation.getEmail(), reservation.getFullName(),
+                    reservation.getStartDate().toString(), reservation.getEndDate().toString(), reservation.isCancelled()));
+        }
+        return result;
+    }
+
+    @Nonnull
+    private Reservation adaptReservationHistoryToReservation(@Nonnull final ReservationHistory reservationHistory) {
+        return new Reservation(reservationHistory.getId(), reservationHistory.getEmail(), reservationHistory.getFullName(),
+                reservationHistory.getStartDate(), reservationHistory.getEndDate(), reservationHistory.isCancelled());
     }
 }
@@ -0,0 +1,55 @@
+package com.upgrade.challenge.impl;
+
+import com.upgrade.challenge.dao.ReservationRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.util.List;
+
+@Component
+public class ReservationArchiveJob {
+
+    @Autowired
+    ReservationRepository repository;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @Value("${reservation.archive.batch-size:500}")
+    private int batchSize;
+
+    private Logger logger = LoggerFactory.getLogger(ReservationArchiveJob.class);
+
+    @Scheduled(cron = "${reservation.archive.cron:0 0 3 * * *}")
+    public void archive() {
+        int total = archiveBefore(LocalDate.now());
+        logger.info("Archived {} past reservation(s)", total);
+    }
+
+    // moves every reservation ending before the given date into reservation_history, cancelled or not, as none of
+    // their nights can be booked any more; one short transaction per batch so the live table is never locked for long
+    public int archiveBefore(final LocalDate endDateBefore) {
+        int total = 0;
+        int archived;
+        do {
+            archived = transactionTemplate.execute(status -> archiveBatch(endDateBefore));
+            total += archived;
+        } while (archived == batchSize);
+        return total;
+    }
+
+    private int archiveBatch(final LocalDate endDateBefore) {
+        List<Long> ids = repository.findArchivableReservationIds(endDateBefore, batchSize);
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        repository.copyToHistory(ids);
+        return repository.deleteByIds(ids);
+    }
+}
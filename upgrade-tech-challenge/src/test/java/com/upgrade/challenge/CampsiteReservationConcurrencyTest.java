@@ -3,21 +3,30 @@ package com.upgrade.challenge;
 import com.upgrade.challenge.api.ReservationApi;
 import com.upgrade.challenge.api.model.ReservationApiModel;
 import com.upgrade.challenge.impl.exception.ReservationException;
+import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.TestPropertySource;
 
 import java.time.LocalDate;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import java.util.function.IntUnaryOperator;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @SpringBootTest
 public class CampsiteReservationConcurrencyTest {
 
+    private static final int POOLED_CAPACITY = 5;
+
     @Autowired
     private ReservationApi reservationService;
 
@@ -26,14 +35,150 @@ public class CampsiteReservationConcurrencyTest {
         int numThreads = 10; // number of concurrent threads
         int numReservations = 100; // number of reservations to attempt in total
 
+        AtomicInteger successfulReservations = reserveConcurrently(reservationService, numThreads, numReservations, i -> LocalDate.now().plusDays(1), i -> 2);
+
+        // verify the result of the concurrent reservations
+        Integer expectedReservations = 1; // expected number of successful reservations
+        Integer actualReservations = reservationService.numberOfReservationBetweenDates(LocalDate.now().plusDays(1), LocalDate.now().plusDays(3)); // get the actual number of reservations made
+        assertEquals(expectedReservations, actualReservations);
+        assertEquals(expectedReservations, successfulReservations.get());
+    }
+
+    @Nested
+    @TestPropertySource(properties = "campsite.capacity=" + POOLED_CAPACITY)
+    class PooledCapacityTest {
+
+        @Autowired
+        private ReservationApi reservationService;
+
+        @Test
+        public void testConcurrentReservationsOfSameNights() throws InterruptedException {
+            AtomicInteger successfulReservations = reserveConcurrently(reservationService, 20, 100, i -> LocalDate.now().plusDays(40), i -> 2);
+
+            // exactly one booking per unit succeeds, the rest are rejected
+            assertEquals(POOLED_CAPACITY, successfulReservations.get());
+            assertEquals(POOLED_CAPACITY, reservationService.numberOfReservationBetweenDates(LocalDate.now().plusDays(40), LocalDate.now().plusDays(41)));
+            assertEquals(Map.of(LocalDate.now().plusDays(40).toString(), 0, LocalDate.now().plusDays(41).toString(), 0),
+                    reservationService.getRemainingUnits(LocalDate.now().plusDays(40), LocalDate.now().plusDays(41)));
+        }
+
+        @Test
+        public void testConcurrentReservationsOfOverlappingNights() throws InterruptedException {
+            LocalDate firstNight = LocalDate.now().plusDays(60);
+            reserveConcurrently(reservationService, 20, 200, i -> firstNight.plusDays(i % 5), i -> 1 + i % 3);
+
+            // no night may be overbooked, and the counters must match what was saved
+            for (LocalDate night = firstNight; night.isBefore(firstNight.plusDays(8)); night = night.plusDays(1)) {
+                // reservations covering the night: ending after it and starting on or before it
+                int booked = reservationService.numberOfReservationBetweenDates(night.plusDays(1), night);
+                assertTrue(booked <= POOLED_CAPACITY, String.format("%s booked %s times", night, booked));
+                assertEquals(POOLED_CAPACITY - booked, reservationService.getRemainingUnits(night, night).get(night.toString()));
+            }
+        }
+
+        @Test
+        public void testConcurrentCancellationsOfSameReservation() throws Exception {
+            LocalDate night = LocalDate.now().plusDays(80);
+            Long reservationId = reserve(reservationService, night, night.plusDays(1));
+            reserve(reservationService, night, night.plusDays(1));
+            reserve(reservationService, night, night.plusDays(1));
+
+            AtomicInteger successfulCancellations = runConcurrently(20, i -> reservationService.cancelReservation(reservationId));
+
+            // only one cancel gives the unit back, the others see the reservation already cancelled
+            assertEquals(1, successfulCancellations.get());
+            assertEquals(POOLED_CAPACITY - 2, reservationService.getRemainingUnits(night, night).get(night.toString()));
+        }
+
+        @Test
+        public void testUpdateOntoOverlappingPartlyFullNights() throws ReservationException {
+            LocalDate firstNight = LocalDate.now().plusDays(100);
+            Long reservationId = reserve(reservationService, firstNight, firstNight.plusDays(2));
+            // every other unit of the second night is taken, the moved reservation already holds the last one
+            for (int i = 1; i < POOLED_CAPACITY; i++) {
+                reserve(reservationService, firstNight.plusDays(1), firstNight.plusDays(2));
+            }
+
+            assertEquals(reservationId, reservationService.updateReservation(reservationId,
+                    new ReservationApiModel("JohnDoe@email.com", "John Doe", firstNight.plusDays(1), firstNight.plusDays(3))).orElseThrow());
+            assertEquals(Map.of(firstNight.toString(), POOLED_CAPACITY, firstNight.plusDays(1).toString(), 0, firstNight.plusDays(2).toString(), POOLED_CAPACITY - 1),
+                    reservationService.getRemainingUnits(firstNight, firstNight.plusDays(2)));
+        }
+
+        @Test
+        public void testConcurrentUpdatesAndCancellationsOfSameReservation() throws Exception {
+            LocalDate firstNight = LocalDate.now().plusDays(90);
+            Long reservationId = reserve(reservationService, firstNight, firstNight.plusDays(2));
+            reserve(reservationService, firstNight.plusDays(1), firstNight.plusDays(3));
+
+            runConcurrently(20, i -> {
+                if (i % 2 == 0) {
+                    reservationService.cancelReservation(reservationId);
+                } else {
+                    LocalDate startDate = firstNight.plusDays(i % 3);
+                    reservationService.updateReservation(reservationId, new ReservationApiModel("JohnDoe@email.com", "John Doe", startDate, startDate.plusDays(2)));
+                }
+            });
+
+            // whatever order the changes won in, the counters must match what was saved
+            for (LocalDate night = firstNight; night.isBefore(firstNight.plusDays(5)); night = night.plusDays(1)) {
+                int booked = reservationService.numberOfReservationBetweenDates(night.plusDays(1), night);
+                assertEquals(POOLED_CAPACITY - booked, reservationService.getRemainingUnits(night, night).get(night.toString()));
+            }
+        }
+    }
+
+    private static Long reserve(ReservationApi reservationService, LocalDate startDate, LocalDate endDate) throws ReservationException {
+        return reservationService.reserve(new ReservationApiModel("JohnDoe@email.com", "John Doe", startDate, endDate)).orElseThrow();
+    }
+
+    // runs every attempt at once, counting those that did not throw a ReservationException
+    private static AtomicInteger runConcurrently(int attempts, ReservationAttempt attempt) throws InterruptedException {
+        ExecutorService executorService = Executors.newFixedThreadPool(attempts);
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicInteger successfulAttempts = new AtomicInteger();
+
+        for (int i = 0; i < attempts; i++) {
+            int attemptIndex = i;
+            executorService.execute(() -> {
+                try {
+                    latch.await();
+                    attempt.run(attemptIndex);
+                    successfulAttempts.incrementAndGet();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ReservationException e) {
+                    // lost the race, expected
+                }
+            });
+        }
+
+        latch.countDown();
+        executorService.shutdown();
+        executorService.awaitTermination(10000, TimeUnit.MILLISECONDS);
+        return successfulAttempts;
+    }
+
+    @FunctionalInterface
+    private interface ReservationAttempt {
+        void run(int attemptIndex) throws ReservationException;
+    }
+
+    private static AtomicInteger reserveConcurrently(ReservationApi reservationService, int numThreads, int numReservations,
+                                                     IntFunction<LocalDate> startDateForAttempt, IntUnaryOperator nightsForAttempt) throws InterruptedException {
         ExecutorService executorService = Executors.newFixedThreadPool(numThreads);
         CountDownLatch latch = new CountDownLatch(1);
+        AtomicInteger successfulReservations = new AtomicInteger();
 
         for (int i = 0; i < numReservations; i++) {
+            LocalDate startDate = startDateForAttempt.apply(i);
+            LocalDate endDate = startDate.plusDays(nightsForAttempt.applyAsInt(i));
             executorService.execute(() -> {
                 try {
                     latch.await(); // wait for the signal to start concurrent requests
-                    reservationService.reserve(new ReservationApiModel("JohnDoe@email.com", "John Doe", LocalDate.now().plusDays(1), LocalDate.now().plusDays(3)));
+                    if (reservationService.reserve(new ReservationApiModel("JohnDoe@email.com", "John Doe", startDate, endDate)).isPresent()) {
+                        successfulReservations.incrementAndGet();
+                    }
                 } catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
                 } catch (ReservationException e) {
@@ -45,10 +190,6 @@ public class CampsiteReservationConcurrencyTest {
         latch.countDown(); // start all concurrent threads simultaneously
         executorService.shutdown();
         executorService.awaitTermination(10000, TimeUnit.MILLISECONDS);
-
-        // verify the result of the concurrent reservations
-        Integer expectedReservations = 1; // expected number of successful reservations
-        Integer actualReservations = reservationService.numberOfReservationBetweenDates(LocalDate.now().plusDays(1), LocalDate.now().plusDays(3)); // get the actual number of reservations made
-        assertEquals(expectedReservations, actualReservations);
+        return successfulReservations;
     }
-}
\ No newline at end of file
+}
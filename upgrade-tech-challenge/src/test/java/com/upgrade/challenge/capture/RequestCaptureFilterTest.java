@@ -0,0 +1,153 @@
+package com.upgrade.challenge.capture;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RequestCaptureFilterTest {
+
+    private static final byte[] PSEUDONYM_KEY = "test-pseudonym-key".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path tempDir;
+
+    private Path traceFile;
+
+    private RequestCaptureFilter subject;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        traceFile = tempDir.resolve("trace.tsv");
+        subject = new RequestCaptureFilter(new ObjectMapper(), PSEUDONYM_KEY, traceFile, 100);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        subject.close();
+    }
+
+    @Test
+    void redactBody_whenEmailAndNamePresent_shouldReplaceWithStablePseudonyms() {
+        String body = subject.redactBody("{\"email\":\"john.doe@example.com\",\"fullName\":\"John Doe\",\"startDate\":\"2023-07-20\"}".getBytes(StandardCharsets.UTF_8));
+        assertFalse(body.contains("john.doe@example.com"));
+        assertFalse(body.contains("John Doe"));
+        assertTrue(body.contains("\"startDate\":\"2023-07-20\""));
+        assertTrue(body.matches(".*\"email\":\"user-[0-9a-f]{12}@redacted.invalid\".*"));
+        assertEquals(body, subject.redactBody("{\"email\":\"john.doe@example.com\",\"fullName\":\"John Doe\",\"startDate\":\"2023-07-20\"}".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void redactBody_whenKeyDiffers_shouldNotMatchUnkeyedOrOtherKeyPseudonyms() throws Exception {
+        byte[] email = "john.doe@example.com".getBytes(StandardCharsets.UTF_8);
+        String unkeyedHash = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(email), 0, 6);
+        String body = subject.redactBody("{\"email\":\"john.doe@example.com\"}".getBytes(StandardCharsets.UTF_8));
+        assertFalse(body.contains(unkeyedHash));
+
+        try (RequestCaptureFilter otherKeyFilter = new RequestCaptureFilter(new ObjectMapper(), "other-key".getBytes(StandardCharsets.UTF_8),
+                tempDir.resolve("other-trace.tsv"), 100)) {
+            assertNotEquals(body, otherKeyFilter.redactBody("{\"email\":\"john.doe@example.com\"}".getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+
+    @Test
+    void redactQuery_whenEmailPresent_shouldMatchBodyPseudonym() {
+        String body = subject.redactBody("{\"email\":\"john.doe@example.com\"}".getBytes(StandardCharsets.UTF_8));
+        String query = subject.redactQuery("email=john.doe%40example.com&cancelled=false");
+        assertFalse(query.contains("john.doe"));
+        assertTrue(query.endsWith("&cancelled=false"));
+        assertTrue(body.contains(query.substring("email=".length(), query.indexOf('&'))));
+    }
+
+    @Test
+    void redactBody_whenNotJson_shouldDropBody() {
+        assertEquals("", subject.redactBody("john.doe@example.com".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void doFilter_whenRequestHandled_shouldAppendTraceLine() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/v1/campsite/availability");
+        request.setQueryString("startDate=2023-07-20&endDate=2023-07-25");
+        request.addHeader("Accept", "application/cbor");
+        request.addHeader("If-None-Match", "\"1690000000000-2023-07-20-2023-07-25-cbor\"");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        subject.doFilter(request, response, new MockFilterChain(new HttpServlet() {
+            @Override
+            protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+                resp.getWriter().write("{\"daysAvailableList\":[]}");
+            }
+        }));
+        subject.close();
+
+        List<String> lines = Files.readAllLines(traceFile);
+        assertEquals(1, lines.size());
+        CapturedRequest capturedRequest = CapturedRequest.fromLine(lines.get(0));
+        assertEquals("GET", capturedRequest.getMethod());
+        assertEquals("/api/v1/campsite/availability", capturedRequest.getPath());
+        assertEquals("startDate=2023-07-20&endDate=2023-07-25", capturedRequest.getQuery());
+        assertEquals(200, capturedRequest.getStatus());
+        assertEquals("", capturedRequest.getBody());
+        assertEquals("application/cbor", capturedRequest.getAccept());
+        assertEquals("\"1690000000000-2023-07-20-2023-07-25-cbor\"", capturedRequest.getIfNoneMatch());
+        assertEquals("", capturedRequest.getIfModifiedSince());
+        assertEquals(CapturedRequest.hashOf("{\"daysAvailableList\":[]}".getBytes(StandardCharsets.UTF_8)), capturedRequest.getResponseHash());
+        assertEquals("{\"daysAvailableList\":[]}", response.getContentAsString());
+        assertEquals(capturedRequest, CapturedRequest.fromLine(capturedRequest.toLine()));
+    }
+
+    @Test
+    void doFilter_whenReservationCreated_shouldRecordReturnedId() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/v1/campsite/reservation");
+        request.setContentType("application/json");
+        request.setContent("{\"email\":\"john.doe@example.com\"}".getBytes(StandardCharsets.UTF_8));
+
+        subject.doFilter(request, new MockHttpServletResponse(), new MockFilterChain(new HttpServlet() {
+            @Override
+            protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+                resp.setContentType("application/json");
+                resp.getWriter().write("{\"reservationId\":42,\"errorMessage\":null}");
+            }
+        }));
+        subject.close();
+
+        assertEquals("42", CapturedRequest.fromLine(Files.readAllLines(traceFile).get(0)).getReservationId());
+    }
+
+    @Test
+    void fromLine_whenRecordedWithoutHeaders_shouldDefaultToEmptyHeaders() {
+        CapturedRequest capturedRequest = CapturedRequest.fromLine("1000\t900\tGET\t/api/v1/campsite/availability\t\t200\t");
+        assertEquals("", capturedRequest.getAccept());
+        assertEquals("", capturedRequest.getIfNoneMatch());
+        assertEquals("", capturedRequest.getIfModifiedSince());
+        assertEquals("", capturedRequest.getResponseHash());
+        assertEquals("", capturedRequest.getReservationId());
+    }
+
+    @Test
+    void doFilter_whenAvailabilityStream_shouldNotCapture() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/v1/campsite/availability/stream");
+
+        subject.doFilter(request, new MockHttpServletResponse(), new MockFilterChain());
+        subject.close();
+
+        assertEquals(List.of(), Files.readAllLines(traceFile));
+    }
+}
@@ -0,0 +1,108 @@
+package com.upgrade.challenge.capture;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"campsite.capture.enabled=true", "campsite.capture.file=target/capture/replay-test-trace.tsv"})
+class TrafficReplayRunnerTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private RequestCaptureFilter requestCaptureFilter;
+
+    @Test
+    void replay_whenTraceMatchesInstance_shouldReportNoDivergence() {
+        LocalDate startDate = LocalDate.now().plusDays(200);
+        String reservation = String.format("{\"email\":\"user-0@redacted.invalid\",\"fullName\":\"user-0\",\"startDate\":\"%s\",\"endDate\":\"%s\"}", startDate, startDate.plusDays(2));
+        String tooLongReservation = String.format("{\"email\":\"user-0@redacted.invalid\",\"fullName\":\"user-0\",\"startDate\":\"%s\",\"endDate\":\"%s\"}", startDate.plusDays(10), startDate.plusDays(15));
+        List<CapturedRequest> trace = List.of(
+                new CapturedRequest(1000L, 900L, "GET", "/api/v1/campsite/availability", String.format("startDate=%s&endDate=%s", startDate, startDate.plusDays(5)), 200, "", "", "", "", "", ""),
+                new CapturedRequest(1010L, 1500L, "POST", "/api/v1/campsite/reservation", "", 200, reservation, "", "", "", "", ""),
+                new CapturedRequest(1030L, 1500L, "POST", "/api/v1/campsite/reservation", "", 400, tooLongReservation, "", "", "", "", ""),
+                new CapturedRequest(1040L, 800L, "GET", "/api/v1/campsite/availability/windows", String.format("nights=4&startDate=%s", startDate), 400, "", "", "", "", "", ""));
+
+        ReplayReport report = new TrafficReplayRunner(URI.create("http://localhost:" + port), 10).replay(trace);
+
+        assertEquals(4, report.getRequestCount());
+        assertEquals(0, report.getDivergenceCount());
+        assertEquals(0, requestCaptureFilter.getDroppedLines());
+    }
+
+    @Test
+    void replay_whenRecordedOnInstanceWithOtherVersionStart_shouldRevalidateWithReplayedETags() {
+        LocalDate startDate = LocalDate.now().plusDays(250);
+        String query = String.format("startDate=%s&endDate=%s", startDate, startDate.plusDays(5));
+        // ETags of the recording instance, whose calendar versions started at another time than this one's
+        String recordedJsonETag = String.format("\"1690000000000-%s-%s-json\"", startDate, startDate.plusDays(5));
+        String recordedCborETag = recordedJsonETag.replace("-json", "-cbor");
+        List<CapturedRequest> trace = List.of(
+                new CapturedRequest(1000L, 900L, "GET", "/api/v1/campsite/availability", query, 200, "", "", "", "", "", ""),
+                new CapturedRequest(1010L, 300L, "GET", "/api/v1/campsite/availability", query, 304, "", "", recordedJsonETag, "", "", ""),
+                new CapturedRequest(1020L, 900L, "GET", "/api/v1/campsite/availability", query, 200, "", "application/cbor", "", "", "", ""),
+                new CapturedRequest(1030L, 300L, "GET", "/api/v1/campsite/availability", query, 304, "", "application/cbor", recordedCborETag, "", "", ""));
+
+        ReplayReport report = new TrafficReplayRunner(URI.create("http://localhost:" + port), 10).replay(trace);
+
+        assertEquals(4, report.getRequestCount());
+        assertEquals(0, report.getDivergenceCount());
+    }
+
+    @Test
+    void replay_whenUpdateAndCancelFollowCreate_shouldUseReplayedReservationId() {
+        LocalDate startDate = LocalDate.now().plusDays(350);
+        String reservation = String.format("{\"email\":\"user-1@redacted.invalid\",\"fullName\":\"user-1\",\"startDate\":\"%s\",\"endDate\":\"%s\"}", startDate, startDate.plusDays(2));
+        String movedReservation = String.format("{\"email\":\"user-1@redacted.invalid\",\"fullName\":\"user-1\",\"startDate\":\"%s\",\"endDate\":\"%s\"}", startDate.plusDays(5), startDate.plusDays(7));
+        // production ids, none of them exists on the replay target
+        List<CapturedRequest> trace = List.of(
+                new CapturedRequest(1000L, 1500L, "POST", "/api/v1/campsite/reservation", "", 200, reservation, "", "", "", "0123456789abcdef", "90001"),
+                new CapturedRequest(1010L, 1500L, "PUT", "/api/v1/campsite/reservation/90001", "", 200, movedReservation, "", "", "", "0123456789abcdef", ""),
+                new CapturedRequest(1020L, 1500L, "DELETE", "/api/v1/campsite/reservation/90001", "", 200, "", "", "", "", "0123456789abcdef", ""),
+                new CapturedRequest(1030L, 1500L, "DELETE", "/api/v1/campsite/reservation/80001", "", 200, "", "", "", "", "", ""));
+
+        ReplayReport report = new TrafficReplayRunner(URI.create("http://localhost:" + port), 10).replay(trace);
+
+        assertEquals(3, report.getRequestCount());
+        assertEquals(0, report.getDivergenceCount());
+        assertEquals(1, report.getUnmappedCount());
+    }
+
+    @Test
+    void replay_whenResponseBodyDiffers_shouldReportBodyDivergence() throws Exception {
+        LocalDate startDate = LocalDate.now().plusDays(300);
+        String query = String.format("startDate=%s&endDate=%s", startDate, startDate.plusDays(5));
+        HttpResponse<byte[]> response = HttpClient.newHttpClient().send(
+                HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/v1/campsite/availability?" + query)).build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        List<CapturedRequest> trace = List.of(
+                new CapturedRequest(1000L, 900L, "GET", "/api/v1/campsite/availability", query, 200, "", "", "", "", CapturedRequest.hashOf(response.body()), ""),
+                new CapturedRequest(1010L, 900L, "GET", "/api/v1/campsite/availability", query, 200, "", "", "", "", "0123456789abcdef", ""));
+
+        ReplayReport report = new TrafficReplayRunner(URI.create("http://localhost:" + port), 10).replay(trace);
+
+        assertEquals(2, report.getRequestCount());
+        assertEquals(1, report.getDivergenceCount());
+    }
+
+    @Test
+    void percentile_whenValuesSorted_shouldUseNearestRank() {
+        List<Long> values = List.of(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L);
+        assertEquals(5L, ReplayReport.percentile(values, 0.50));
+        assertEquals(9L, ReplayReport.percentile(values, 0.90));
+        assertEquals(10L, ReplayReport.percentile(values, 1.0));
+        assertEquals("DELETE /api/v1/campsite/reservation/{id}", ReplayReport.endpointOf(new CapturedRequest(0L, 0L, "DELETE", "/api/v1/campsite/reservation/42", "", 200, "", "", "", "", "", "")));
+    }
+}
@@ -0,0 +1,183 @@
+package com.upgrade.challenge.controller;
+
+import com.upgrade.challenge.api.model.AvailabilityChangeResponse;
+import com.upgrade.challenge.api.model.AvailabilityChangedEvent;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AvailabilityStreamRegistryTest {
+
+    private AvailabilityStreamRegistry subject;
+
+    @BeforeEach
+    void setUp() {
+        subject = new AvailabilityStreamRegistry();
+        ReflectionTestUtils.setField(subject, "maxPendingEvents", 4);
+        ReflectionTestUtils.setField(subject, "sendTimeout", 100L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        subject.shutdown();
+    }
+
+    @Test
+    void onAvailabilityChanged_whenNightsInsideWindow_shouldSendOnlyThoseNights() throws InterruptedException {
+        LocalDate startDate = LocalDate.now().plusDays(10);
+        RecordingEmitter insideEmitter = new RecordingEmitter(1);
+        RecordingEmitter outsideEmitter = new RecordingEmitter(1);
+        subject.register(insideEmitter, startDate, startDate.plusDays(5));
+        subject.register(outsideEmitter, startDate.plusMonths(3), startDate.plusMonths(4));
+
+        subject.onAvailabilityChanged(new AvailabilityChangedEvent(Map.of(startDate.minusDays(1), 7L), new TreeMap<>(Map.of(startDate, 8L, startDate.plusDays(1), 9L))));
+
+        assertTrue(insideEmitter.sent.await(5, TimeUnit.SECONDS));
+        AvailabilityChangeResponse change = insideEmitter.changes.get(0);
+        assertEquals(List.of(), change.getDaysAvailableList());
+        assertEquals(List.of(startDate.toString(), startDate.plusDays(1).toString()), change.getDaysTakenList());
+        assertEquals(Map.of(startDate.toString(), 8L, startDate.plusDays(1).toString(), 9L), change.getNightVersions());
+        assertTrue(outsideEmitter.changes.isEmpty());
+    }
+
+    @Test
+    void onAvailabilityChanged_whenConsumerTooSlow_shouldDropSubscription() throws InterruptedException {
+        LocalDate startDate = LocalDate.now().plusDays(10);
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingEmitter slowEmitter = new RecordingEmitter(1) {
+            @Override
+            public void send(SseEventBuilder builder) throws IOException {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.send(builder);
+            }
+        };
+        subject.register(slowEmitter, startDate, startDate.plusDays(5));
+
+        for (int i = 0; i < 10; i++) {
+            subject.onAvailabilityChanged(new AvailabilityChangedEvent(Map.of(startDate, 1L), Map.of()));
+        }
+
+        assertEquals(0, subject.getSubscriptionCount());
+        release.countDown();
+        assertTrue(slowEmitter.completed.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void dropStalledSubscribers_whenSendBlockedPastDeadline_shouldDropSubscription() throws InterruptedException {
+        LocalDate startDate = LocalDate.now().plusDays(10);
+        CountDownLatch sending = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingEmitter stalledEmitter = new RecordingEmitter(1) {
+            @Override
+            public void send(SseEventBuilder builder) throws IOException {
+                sending.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.send(builder);
+            }
+        };
+        subject.register(stalledEmitter, startDate, startDate.plusDays(5));
+        subject.onAvailabilityChanged(new AvailabilityChangedEvent(Map.of(startDate, 1L), Map.of()));
+        assertTrue(sending.await(5, TimeUnit.SECONDS));
+
+        subject.dropStalledSubscribers();
+        assertEquals(1, subject.getSubscriptionCount());
+
+        Thread.sleep(200);
+        subject.dropStalledSubscribers();
+        assertEquals(0, subject.getSubscriptionCount());
+
+        // nothing is queued for a dropped subscriber, the blocked send completes the emitter once it returns
+        subject.onAvailabilityChanged(new AvailabilityChangedEvent(Map.of(startDate.plusDays(1), 1L), Map.of()));
+        release.countDown();
+        assertTrue(stalledEmitter.completed.await(5, TimeUnit.SECONDS));
+        assertEquals(1, stalledEmitter.changes.size());
+    }
+
+    @Test
+    void onAvailabilityChanged_whenOtherSubscribersStalled_shouldStillSendToHealthyOne() throws InterruptedException {
+        LocalDate startDate = LocalDate.now().plusDays(10);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch stalledSending = new CountDownLatch(8);
+        for (int i = 0; i < 8; i++) {
+            subject.register(new RecordingEmitter(1) {
+                @Override
+                public void send(SseEventBuilder builder) throws IOException {
+                    stalledSending.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }, startDate, startDate.plusDays(5));
+        }
+        RecordingEmitter healthyEmitter = new RecordingEmitter(1);
+        subject.register(healthyEmitter, startDate, startDate.plusDays(5));
+
+        subject.onAvailabilityChanged(new AvailabilityChangedEvent(Map.of(startDate, 1L), Map.of()));
+
+        try {
+            assertTrue(stalledSending.await(5, TimeUnit.SECONDS));
+            assertTrue(healthyEmitter.sent.await(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    void sendHeartbeats_whenSubscribed_shouldSendToEverySubscription() throws InterruptedException {
+        RecordingEmitter emitter1 = new RecordingEmitter(1);
+        RecordingEmitter emitter2 = new RecordingEmitter(1);
+        subject.register(emitter1, LocalDate.now().plusDays(1), LocalDate.now().plusDays(2));
+        subject.register(emitter2, LocalDate.now().plusMonths(1), LocalDate.now().plusMonths(2));
+
+        subject.sendHeartbeats();
+
+        assertTrue(emitter1.sent.await(5, TimeUnit.SECONDS));
+        assertTrue(emitter2.sent.await(5, TimeUnit.SECONDS));
+    }
+
+    private static class RecordingEmitter extends SseEmitter {
+        private final List<AvailabilityChangeResponse> changes = new CopyOnWriteArrayList<>();
+        private final CountDownLatch sent;
+        private final CountDownLatch completed = new CountDownLatch(1);
+
+        private RecordingEmitter(int expectedEvents) {
+            this.sent = new CountDownLatch(expectedEvents);
+        }
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            builder.build().stream()
+                    .filter(data -> data.getData() instanceof AvailabilityChangeResponse)
+                    .forEach(data -> changes.add((AvailabilityChangeResponse) data.getData()));
+            sent.countDown();
+        }
+
+        @Override
+        public void complete() {
+            completed.countDown();
+        }
+    }
+}
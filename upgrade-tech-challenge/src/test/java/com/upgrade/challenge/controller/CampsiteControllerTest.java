@@ -1,6 +1,14 @@
 package com.upgrade.challenge.controller;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import com.upgrade.challenge.api.ReservationApi;
+import com.upgrade.challenge.api.model.AvailableWindow;
+import com.upgrade.challenge.api.model.ReservationDetails;
+import com.upgrade.challenge.api.model.ReservationPage;
 import com.upgrade.challenge.impl.exception.ReservationException;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
@@ -9,19 +17,30 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
 
 import java.time.LocalDate;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.Mockito.doThrow;
-import static org.mockito.Mockito.when;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 
@@ -32,13 +51,20 @@ class CampsiteControllerTest {
     private static final Long RESERVATION_ID = 1L;
     private static final String ERROR_MESSAGE = "errorMessage";
     private static final String FAILED_ERROR_MESSAGE = "Failed to create reservation";
+    private static final Long CALENDAR_VERSION = 1690000000000L;
 
     @Autowired
     private MockMvc mockMvc;
 
+    @Autowired
+    private RequestMappingHandlerAdapter requestMappingHandlerAdapter;
+
     @MockBean
     private ReservationApi reservationApi;
 
+    @MockBean
+    private AvailabilityStreamRegistry availabilityStreamRegistry;
+
     private String validReservation;
 
     @BeforeEach
@@ -82,13 +108,247 @@ class CampsiteControllerTest {
         Assertions.assertEquals(400, result.getResponse().getStatus());
     }
 
+    @Test
+    void checkCampsiteAvailability_whenCalendarVersionKnown_shouldReturnETagAndCacheControl() throws Exception {
+        when(reservationApi.getAvailabilityDays(any(), any())).thenReturn(List.of(LocalDate.now().plusDays(2).toString()));
+        when(reservationApi.getCalendarVersion(any(), any())).thenReturn(CALENDAR_VERSION);
+        LocalDate startDate = LocalDate.now().plusDays(2);
+        LocalDate endDate = LocalDate.now().plusDays(5);
+        mockMvc.perform(get(String.format("/api/v1/campsite/availability?startDate=%s&endDate=%s", startDate, endDate)).contentType("application/json"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", String.format("\"%s-%s-%s-json\"", CALENDAR_VERSION, startDate, endDate)))
+                .andExpect(header().doesNotExist("Last-Modified"))
+                .andExpect(header().string("Cache-Control", "max-age=5, must-revalidate, public"));
+    }
+
+    @Test
+    void checkCampsiteAvailability_whenETagMatches_shouldReturnNotModifiedWithoutQuery() throws Exception {
+        when(reservationApi.getCalendarVersion(any(), any())).thenReturn(CALENDAR_VERSION);
+        LocalDate startDate = LocalDate.now().plusDays(2);
+        LocalDate endDate = LocalDate.now().plusDays(5);
+        MvcResult result = mockMvc.perform(get(String.format("/api/v1/campsite/availability?startDate=%s&endDate=%s", startDate, endDate)).contentType("application/json")
+                .header("If-None-Match", String.format("\"%s-%s-%s-json\"", CALENDAR_VERSION, startDate, endDate))).andReturn();
+        Assertions.assertEquals(304, result.getResponse().getStatus());
+        Assertions.assertEquals("", result.getResponse().getContentAsString());
+        verify(reservationApi, never()).getAvailabilityDays(any(), any());
+    }
+
+    @Test
+    void checkCampsiteAvailability_whenOnlyModifiedSinceSent_shouldReturnOk() throws Exception {
+        when(reservationApi.getAvailabilityDays(any(), any())).thenReturn(List.of(LocalDate.now().plusDays(2).toString()));
+        // a second change within the same second as the client's copy, If-Modified-Since cannot tell them apart
+        when(reservationApi.getCalendarVersion(any(), any())).thenReturn(CALENDAR_VERSION + 1);
+        LocalDate startDate = LocalDate.now().plusDays(2);
+        LocalDate endDate = LocalDate.now().plusDays(5);
+        HttpHeaders headers = new HttpHeaders();
+        headers.setIfModifiedSince(CALENDAR_VERSION);
+        mockMvc.perform(get(String.format("/api/v1/campsite/availability?startDate=%s&endDate=%s", startDate, endDate)).contentType("application/json")
+                        .headers(headers))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void checkCampsiteAvailability_whenETagIsStale_shouldReturnOk() throws Exception {
+        when(reservationApi.getAvailabilityDays(any(), any())).thenReturn(List.of(LocalDate.now().plusDays(2).toString()));
+        when(reservationApi.getCalendarVersion(any(), any())).thenReturn(CALENDAR_VERSION + 1);
+        LocalDate startDate = LocalDate.now().plusDays(2);
+        LocalDate endDate = LocalDate.now().plusDays(5);
+        mockMvc.perform(get(String.format("/api/v1/campsite/availability?startDate=%s&endDate=%s", startDate, endDate)).contentType("application/json")
+                .header("If-None-Match", String.format("\"%s-%s-%s-json\"", CALENDAR_VERSION, startDate, endDate)))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void checkCampsiteAvailability_whenCborAccepted_shouldReturnCborWithRepresentationETag() throws Exception {
+        when(reservationApi.getAvailabilityDays(any(), any())).thenReturn(List.of(LocalDate.now().plusDays(2).toString()));
+        when(reservationApi.getCalendarVersion(any(), any())).thenReturn(CALENDAR_VERSION);
+        LocalDate startDate = LocalDate.now().plusDays(2);
+        LocalDate endDate = LocalDate.now().plusDays(5);
+        MvcResult result = mockMvc.perform(get(String.format("/api/v1/campsite/availability?startDate=%s&endDate=%s", startDate, endDate))
+                        .accept(MediaType.APPLICATION_CBOR))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Type", MediaType.APPLICATION_CBOR_VALUE))
+                .andExpect(header().string("ETag", String.format("\"%s-%s-%s-cbor\"", CALENDAR_VERSION, startDate, endDate)))
+                .andExpect(header().string("Vary", "Accept"))
+                .andReturn();
+
+        JsonNode response = new ObjectMapper(new CBORFactory()).readTree(result.getResponse().getContentAsByteArray());
+        Assertions.assertEquals(LocalDate.now().plusDays(2).toString(), response.get("daysAvailableList").get(0).asText());
+    }
+
+    @Test
+    void checkCampsiteAvailability_whenCborHasLowerQuality_shouldReturnJsonWithJsonETag() throws Exception {
+        when(reservationApi.getAvailabilityDays(any(), any())).thenReturn(List.of(LocalDate.now().plusDays(2).toString()));
+        when(reservationApi.getCalendarVersion(any(), any())).thenReturn(CALENDAR_VERSION);
+        LocalDate startDate = LocalDate.now().plusDays(2);
+        LocalDate endDate = LocalDate.now().plusDays(5);
+        mockMvc.perform(get(String.format("/api/v1/campsite/availability?startDate=%s&endDate=%s", startDate, endDate))
+                        .header(HttpHeaders.ACCEPT, "application/cbor;q=0.1, application/json"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Type", MediaType.APPLICATION_JSON_VALUE))
+                .andExpect(header().string("ETag", String.format("\"%s-%s-%s-json\"", CALENDAR_VERSION, startDate, endDate)));
+    }
+
+    @Test
+    void checkCampsiteAvailability_whenJsonETagSentForCbor_shouldReturnOk() throws Exception {
+        when(reservationApi.getAvailabilityDays(any(), any())).thenReturn(List.of(LocalDate.now().plusDays(2).toString()));
+        when(reservationApi.getCalendarVersion(any(), any())).thenReturn(CALENDAR_VERSION);
+        LocalDate startDate = LocalDate.now().plusDays(2);
+        LocalDate endDate = LocalDate.now().plusDays(5);
+        mockMvc.perform(get(String.format("/api/v1/campsite/availability?startDate=%s&endDate=%s", startDate, endDate))
+                        .accept(MediaType.APPLICATION_CBOR)
+                        .header("If-None-Match", String.format("\"%s-%s-%s-json\"", CALENDAR_VERSION, startDate, endDate)))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void checkCampsiteAvailability_whenAnyAcceptHeader_shouldTagTheRepresentationSpringWrites() throws Exception {
+        when(reservationApi.getAvailabilityDays(any(), any())).thenReturn(List.of(LocalDate.now().plusDays(2).toString()));
+        when(reservationApi.getCalendarVersion(any(), any())).thenReturn(CALENDAR_VERSION);
+        LocalDate startDate = LocalDate.now().plusDays(2);
+        LocalDate endDate = LocalDate.now().plusDays(5);
+        for (String accept : List.of("*/*", "application/*", "application/x-jackson-smile", "application/vnd.campsite+json",
+                "application/cbor, application/x-jackson-smile", "application/json;q=0.5, application/*")) {
+            MvcResult result = mockMvc.perform(get(String.format("/api/v1/campsite/availability?startDate=%s&endDate=%s", startDate, endDate))
+                            .header(HttpHeaders.ACCEPT, accept))
+                    .andExpect(status().isOk())
+                    .andReturn();
+
+            String subtype = MediaType.parseMediaType(result.getResponse().getContentType()).getSubtype();
+            Assertions.assertEquals(String.format("\"%s-%s-%s-%s\"", CALENDAR_VERSION, startDate, endDate, subtype),
+                    result.getResponse().getHeader(HttpHeaders.ETAG), accept);
+        }
+    }
+
+    @Test
+    void checkCampsiteAvailability_whenNoConverterWritesAcceptedType_shouldReturnNotAcceptable() throws Exception {
+        mockMvc.perform(get("/api/v1/campsite/availability").header(HttpHeaders.ACCEPT, "text/html"))
+                .andExpect(status().isNotAcceptable());
+        verify(reservationApi, times(0)).getAvailabilityDays(any(), any());
+    }
+
+    @Test
+    void messageConverters_shouldHoldOneBootConfiguredConverterPerBinaryFormat() {
+        List<HttpMessageConverter<?>> converters = requestMappingHandlerAdapter.getMessageConverters();
+        List<MappingJackson2CborHttpMessageConverter> cborConverters = converters.stream()
+                .filter(MappingJackson2CborHttpMessageConverter.class::isInstance).map(MappingJackson2CborHttpMessageConverter.class::cast).toList();
+        List<MappingJackson2SmileHttpMessageConverter> smileConverters = converters.stream()
+                .filter(MappingJackson2SmileHttpMessageConverter.class::isInstance).map(MappingJackson2SmileHttpMessageConverter.class::cast).toList();
+
+        Assertions.assertEquals(1, cborConverters.size());
+        Assertions.assertEquals(1, smileConverters.size());
+        // Boot turns date timestamps off, a plain Jackson2ObjectMapperBuilder leaves them on
+        Assertions.assertFalse(cborConverters.get(0).getObjectMapper().isEnabled(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS));
+        Assertions.assertFalse(smileConverters.get(0).getObjectMapper().isEnabled(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS));
+    }
+
+    @Test
+    void createReservation_whenSmileAccepted_shouldReturnSmile() throws Exception {
+        when(reservationApi.reserve(any())).thenReturn(Optional.of(RESERVATION_ID));
+
+        MvcResult result = mockMvc.perform(post("/api/v1/campsite/reservation").contentType("application/json")
+                .accept("application/x-jackson-smile").content(validReservation)).andReturn();
+        Assertions.assertEquals(200, result.getResponse().getStatus());
+        Assertions.assertEquals("application/x-jackson-smile", result.getResponse().getContentType());
+        Assertions.assertEquals(RESERVATION_ID, new ObjectMapper(new SmileFactory())
+                .readTree(result.getResponse().getContentAsByteArray()).get("reservationId").asLong());
+    }
+
+    @Test
+    void checkCampsiteCapacity_whenDatesValid_shouldReturnRemainingUnits() throws Exception {
+        LocalDate startDate = LocalDate.now().plusDays(2);
+        when(reservationApi.getRemainingUnits(any(), any())).thenReturn(Map.of(startDate.toString(), 3));
+
+        MvcResult result = mockMvc.perform(get(String.format("/api/v1/campsite/availability/capacity?startDate=%s&endDate=%s", startDate, startDate))).andReturn();
+        Assertions.assertEquals(String.format("{\"remainingUnitsByDay\":{\"%s\":3},\"errorMessage\":null}", startDate), result.getResponse().getContentAsString());
+        Assertions.assertEquals(200, result.getResponse().getStatus());
+    }
+
+    @Test
+    void checkCampsiteCapacity_whenStartDateInPast_shouldResolveWindowLikeAvailability() throws Exception {
+        LocalDate startDate = LocalDate.now().minusDays(3);
+        LocalDate endDate = LocalDate.now().plusDays(4);
+        when(reservationApi.getRemainingUnits(any(), any())).thenReturn(Map.of());
+
+        mockMvc.perform(get(String.format("/api/v1/campsite/availability/capacity?startDate=%s&endDate=%s", startDate, endDate)))
+                .andExpect(status().isOk());
+        verify(reservationApi, times(1)).getRemainingUnits(LocalDate.now().plusDays(1), endDate);
+    }
+
+    @Test
+    void findAvailableWindows_whenWindowsExist_shouldReturnOk() throws Exception {
+        LocalDate startDate = LocalDate.now().plusDays(2);
+        when(reservationApi.findAvailableWindows(any(), any(), anyInt(), anyInt()))
+                .thenReturn(List.of(new AvailableWindow(startDate.toString(), startDate.plusDays(2).toString())));
+
+        MvcResult result = mockMvc.perform(get(String.format("/api/v1/campsite/availability/windows?nights=2&startDate=%s", startDate))).andReturn();
+        Assertions.assertEquals(String.format("{\"availableWindowList\":[{\"startDate\":\"%s\",\"endDate\":\"%s\"}],\"errorMessage\":null}", startDate, startDate.plusDays(2)),
+                result.getResponse().getContentAsString());
+        Assertions.assertEquals(200, result.getResponse().getStatus());
+        verify(reservationApi, times(1)).findAvailableWindows(startDate, startDate.plusYears(1), 2, 5);
+    }
+
+    @Test
+    void findAvailableWindows_whenThrowReservationException_shouldReturnBadRequest() throws Exception {
+        when(reservationApi.findAvailableWindows(any(), any(), anyInt(), anyInt())).thenThrow(new ReservationException(ERROR_MESSAGE));
+
+        MvcResult result = mockMvc.perform(get("/api/v1/campsite/availability/windows?nights=4")).andReturn();
+        Assertions.assertEquals(String.format("{\"availableWindowList\":[],\"errorMessage\":\"%s\"}", ERROR_MESSAGE), result.getResponse().getContentAsString());
+        Assertions.assertEquals(400, result.getResponse().getStatus());
+    }
+
+    @Test
+    void streamCampsiteAvailability_whenWindowValid_shouldRegisterSubscription() throws Exception {
+        LocalDate startDate = LocalDate.now().plusDays(2);
+        LocalDate endDate = LocalDate.now().plusDays(5);
+        mockMvc.perform(get(String.format("/api/v1/campsite/availability/stream?startDate=%s&endDate=%s", startDate, endDate)))
+                .andExpect(request().asyncStarted())
+                .andExpect(status().isOk());
+        verify(availabilityStreamRegistry, times(1)).register(any(), eq(startDate), eq(endDate));
+    }
+
+    @Test
+    void streamCampsiteAvailability_whenEndDateIsBeforeStartDate_shouldReturnBadRequest() throws Exception {
+        LocalDate endDate = LocalDate.now().plusDays(2);
+        LocalDate startDate = LocalDate.now().plusDays(5);
+        MvcResult result = mockMvc.perform(get(String.format("/api/v1/campsite/availability/stream?startDate=%s&endDate=%s", startDate, endDate)))
+                .andReturn();
+        Assertions.assertEquals(400, result.getResponse().getStatus());
+        Assertions.assertEquals("event:error\ndata:{\"daysAvailableList\":[],\"errorMessage\":\"End date cannot be before Start Date\"}\n\n",
+                result.getResponse().getContentAsString());
+        verify(availabilityStreamRegistry, never()).register(any(), any(), any());
+    }
+
+    @Test
+    void findReservationsByEmail_whenFound_shouldReturnPage() throws Exception {
+        ReservationDetails reservation = new ReservationDetails(RESERVATION_ID, "john.doe@example.com", "John Doe",
+                LocalDate.now().plusDays(2).toString(), LocalDate.now().plusDays(3).toString(), false);
+        when(reservationApi.findReservationsByEmail(any(), any(), any(), any(), any(), any())).thenReturn(new ReservationPage(List.of(reservation), Optional.of("cursor"), Optional.empty()));
+
+        MvcResult result = mockMvc.perform(get("/api/v1/campsite/reservation?email=john.doe@example.com&cancelled=false&limit=1")).andReturn();
+        Assertions.assertEquals(200, result.getResponse().getStatus());
+        Assertions.assertEquals(String.format("{\"reservations\":[{\"reservationId\":%s,\"email\":\"john.doe@example.com\",\"fullName\":\"John Doe\"," +
+                        "\"startDate\":\"%s\",\"endDate\":\"%s\",\"cancelled\":false}],\"nextCursor\":\"cursor\",\"errorMessage\":null}",
+                RESERVATION_ID, LocalDate.now().plusDays(2), LocalDate.now().plusDays(3)), result.getResponse().getContentAsString());
+        verify(reservationApi, times(1)).findReservationsByEmail(eq("john.doe@example.com"), eq(false), isNull(), isNull(), isNull(), eq(1));
+    }
+
+    @Test
+    void findReservationsByEmail_whenThrowReservationException_shouldReturnBadRequest() throws Exception {
+        when(reservationApi.findReservationsByEmail(any(), any(), any(), any(), any(), any())).thenThrow(new ReservationException(ERROR_MESSAGE));
+
+        MvcResult result = mockMvc.perform(get("/api/v1/campsite/reservation?email=john.doe@example.com&cursor=bad")).andReturn();
+        Assertions.assertEquals(String.format("{\"reservations\":[],\"nextCursor\":null,\"errorMessage\":\"%s\"}", ERROR_MESSAGE), result.getResponse().getContentAsString());
+        Assertions.assertEquals(400, result.getResponse().getStatus());
+    }
+
     @Test
     void createReservation_whenValidAndAvailable_shouldReturnOk() throws Exception {
         when(reservationApi.reserve(any())).thenReturn(Optional.of(RESERVATION_ID));
 
         MvcResult result = mockMvc.perform(post("/api/v1/campsite/reservation").contentType("application/json")
                 .content(validReservation)).andReturn();
-        Assertions.assertEquals(String.format("Reservation created with booking ID: %s", RESERVATION_ID), result.getResponse().getContentAsString());
+        Assertions.assertEquals(String.format("{\"reservationId\":%s,\"errorMessage\":null}", RESERVATION_ID), result.getResponse().getContentAsString());
         Assertions.assertEquals(200, result.getResponse().getStatus());
     }
 
@@ -96,7 +356,7 @@ class CampsiteControllerTest {
     void createReservation_whenNoReservationIdReturned_shouldReturnBadRequest() throws Exception {
         MvcResult result = mockMvc.perform(post("/api/v1/campsite/reservation").contentType("application/json")
                 .content(validReservation)).andReturn();
-        Assertions.assertEquals(FAILED_ERROR_MESSAGE, result.getResponse().getContentAsString());
+        Assertions.assertEquals(String.format("{\"reservationId\":null,\"errorMessage\":\"%s\"}", FAILED_ERROR_MESSAGE), result.getResponse().getContentAsString());
         Assertions.assertEquals(400, result.getResponse().getStatus());
     }
 
@@ -113,7 +373,7 @@ class CampsiteControllerTest {
 
         MvcResult result = mockMvc.perform(put(String.format("/api/v1/campsite/reservation/%s", RESERVATION_ID)).contentType("application/json")
                 .content(validReservation)).andReturn();
-        Assertions.assertEquals("Reservation updated successfully!", result.getResponse().getContentAsString());
+        Assertions.assertEquals(String.format("{\"reservationId\":%s,\"errorMessage\":null}", RESERVATION_ID), result.getResponse().getContentAsString());
         Assertions.assertEquals(200, result.getResponse().getStatus());
     }
 
@@ -123,7 +383,7 @@ class CampsiteControllerTest {
 
         MvcResult result = mockMvc.perform(put(String.format("/api/v1/campsite/reservation/%s", RESERVATION_ID)).contentType("application/json")
                 .content(validReservation)).andReturn();
-        Assertions.assertEquals(ERROR_MESSAGE, result.getResponse().getContentAsString());
+        Assertions.assertEquals(String.format("{\"reservationId\":null,\"errorMessage\":\"%s\"}", ERROR_MESSAGE), result.getResponse().getContentAsString());
         Assertions.assertEquals(400, result.getResponse().getStatus());
     }
 
@@ -131,7 +391,7 @@ class CampsiteControllerTest {
     void cancelReservation_whenCancellationIsSuccess_shouldReturnOk() throws Exception {
         MvcResult result = mockMvc.perform(delete(String.format("/api/v1/campsite/reservation/%s", RESERVATION_ID)).contentType("application/json")
         ).andReturn();
-        Assertions.assertEquals("Reservation canceled successfully.", result.getResponse().getContentAsString());
+        Assertions.assertEquals(String.format("{\"reservationId\":%s,\"errorMessage\":null}", RESERVATION_ID), result.getResponse().getContentAsString());
         Assertions.assertEquals(200, result.getResponse().getStatus());
     }
 
@@ -141,7 +401,7 @@ class CampsiteControllerTest {
 
         MvcResult result = mockMvc.perform(delete(String.format("/api/v1/campsite/reservation/%s", RESERVATION_ID)).contentType("application/json")
         ).andReturn();
-        Assertions.assertEquals(ERROR_MESSAGE, result.getResponse().getContentAsString());
+        Assertions.assertEquals(String.format("{\"reservationId\":null,\"errorMessage\":\"%s\"}", ERROR_MESSAGE), result.getResponse().getContentAsString());
         Assertions.assertEquals(400, result.getResponse().getStatus());
     }
 }
\ No newline at end of file
@@ -0,0 +1,78 @@
+package com.upgrade.challenge.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.upgrade.challenge.api.model.AvailabilityResponse;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.lang.management.ManagementFactory;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+// compares the JSON, CBOR and Smile encodings of the largest availability response (the 2 months cap), run the timing
+// part with: mvn test -Dbenchmark=true -Dtest=ResponseSerializationBenchmarkTest
+class ResponseSerializationBenchmarkTest {
+
+    private static final int WARMUP_ITERATIONS = 20_000;
+    private static final int MEASURED_ITERATIONS = 100_000;
+
+    private final Map<String, ObjectMapper> mappers = new LinkedHashMap<>();
+
+    private AvailabilityResponse response;
+
+    @BeforeEach
+    void setUp() {
+        mappers.put("json", Jackson2ObjectMapperBuilder.json().build());
+        mappers.put("cbor", Jackson2ObjectMapperBuilder.cbor().build());
+        mappers.put("smile", Jackson2ObjectMapperBuilder.smile().build());
+
+        List<String> daysAvailableList = new ArrayList<>();
+        LocalDate startDate = LocalDate.now().plusDays(1);
+        for (LocalDate date = startDate; date.isBefore(startDate.plusMonths(2)); date = date.plusDays(1)) {
+            daysAvailableList.add(date.toString());
+        }
+        response = new AvailabilityResponse(daysAvailableList, Optional.empty());
+    }
+
+    @Test
+    void binaryFormats_shouldBeSmallerThanJson() throws Exception {
+        int jsonSize = mappers.get("json").writeValueAsBytes(response).length;
+
+        Assertions.assertTrue(mappers.get("cbor").writeValueAsBytes(response).length < jsonSize);
+        Assertions.assertTrue(mappers.get("smile").writeValueAsBytes(response).length < jsonSize);
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    void serialize_benchmark() throws Exception {
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        for (Map.Entry<String, ObjectMapper> entry : mappers.entrySet()) {
+            ObjectMapper mapper = entry.getValue();
+            long sink = 0;
+            for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+                sink += mapper.writeValueAsBytes(response).length;
+            }
+
+            long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+            long startNanos = System.nanoTime();
+            for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+                sink += mapper.writeValueAsBytes(response).length;
+            }
+            long elapsedNanos = System.nanoTime() - startNanos;
+            long allocatedBytes = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+            System.out.printf("%-5s %5d bytes %8d ns/op %8d allocated bytes/op (%d)%n", entry.getKey(),
+                    mapper.writeValueAsBytes(response).length, elapsedNanos / MEASURED_ITERATIONS,
+                    allocatedBytes / MEASURED_ITERATIONS, sink);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.upgrade.challenge.dao;
+
+import com.upgrade.challenge.dao.model.Reservation;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DataJpaTest
+class ReservationRepositoryTest {
+
+    private static final String EMAIL = "keyset@email.com";
+
+    @Autowired
+    ReservationRepository subject;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    private Reservation reservation1;
+    private Reservation reservation2;
+    private Reservation reservation3;
+    private Reservation cancelledReservation;
+
+    @BeforeEach
+    void setUp() {
+        LocalDate startDate = LocalDate.now().plusDays(10);
+        reservation1 = subject.save(new Reservation(null, EMAIL, "John Doe", startDate, startDate.plusDays(1), false));
+        reservation2 = subject.save(new Reservation(null, EMAIL, "John Doe", startDate, startDate.plusDays(2), false));
+        reservation3 = subject.save(new Reservation(null, EMAIL, "John Doe", startDate.plusDays(5), startDate.plusDays(6), false));
+        cancelledReservation = subject.save(new Reservation(null, EMAIL, "John Doe", startDate.plusDays(1), startDate.plusDays(2), true));
+        subject.save(new Reservation(null, "other@email.com", "Jane Doe", startDate, startDate.plusDays(1), false));
+    }
+
+    @Test
+    void findByEmailAfter_whenPaging_shouldSeekPastCursorOrderedByStartDateAndId() {
+        List<Reservation> firstPage = subject.findByEmailAfter(EMAIL, LocalDate.EPOCH, 0L, null, null, PageRequest.of(0, 2));
+        assertEquals(List.of(reservation1.getId(), reservation2.getId()), firstPage.stream().map(Reservation::getId).toList());
+
+        Reservation last = firstPage.get(1);
+        List<Reservation> secondPage = subject.findByEmailAfter(EMAIL, last.getStartDate(), last.getId(), null, null, PageRequest.of(0, 2));
+        assertEquals(List.of(cancelledReservation.getId(), reservation3.getId()), secondPage.stream().map(Reservation::getId).toList());
+    }
+
+    @Test
+    void findByEmailAfter_whenFiltered_shouldApplyCancelledAndDateRange() {
+        List<Reservation> active = subject.findByEmailAfter(EMAIL, LocalDate.EPOCH, 0L, null, false, PageRequest.of(0, 10));
+        assertEquals(List.of(reservation1.getId(), reservation2.getId(), reservation3.getId()), active.stream().map(Reservation::getId).toList());
+
+        List<Reservation> cancelled = subject.findByEmailAfter(EMAIL, LocalDate.EPOCH, 0L, null, true, PageRequest.of(0, 10));
+        assertEquals(List.of(cancelledReservation.getId()), cancelled.stream().map(Reservation::getId).toList());
+
+        List<Reservation> inRange = subject.findByEmailAfter(EMAIL, reservation3.getStartDate(), 0L, reservation3.getStartDate(), null, PageRequest.of(0, 10));
+        assertEquals(List.of(reservation3.getId()), inRange.stream().map(Reservation::getId).toList());
+    }
+
+    @Test
+    void findArchivableReservationIds_shouldSeekTheEndDateIndex() {
+        String plan = jdbcTemplate.queryForObject("EXPLAIN SELECT id FROM reservation WHERE end_date < ? ORDER BY end_date, id LIMIT ?",
+                String.class, LocalDate.now(), 500);
+
+        assertTrue(plan.contains("IDX_RESERVATION_END_DATE_ID"), plan);
+    }
+}
@@ -0,0 +1,85 @@
+package com.upgrade.challenge.impl;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NightCapacityLedgerTest {
+
+    private static final LocalDate NIGHT = LocalDate.now().plusDays(10);
+
+    private NightCapacityLedger subject;
+
+    @BeforeEach
+    void setUp() {
+        subject = new NightCapacityLedger();
+        ReflectionTestUtils.setField(subject, "capacity", 2);
+        ReflectionTestUtils.setField(subject, "calendarVersionTracker", new CalendarVersionTracker());
+    }
+
+    @Test
+    void tryAcquire_whenUnitsRemain_shouldTakeOneUnitPerNight() {
+        assertTrue(subject.tryAcquire(List.of(NIGHT, NIGHT.plusDays(1))).isPresent());
+        assertEquals(1, subject.getRemainingUnits(NIGHT));
+        assertEquals(1, subject.getRemainingUnits(NIGHT.plusDays(1)));
+        assertEquals(2, subject.getRemainingUnits(NIGHT.plusDays(2)));
+    }
+
+    @Test
+    void tryAcquire_whenOneNightFull_shouldTakeNothing() {
+        assertTrue(subject.tryAcquire(List.of(NIGHT.plusDays(1))).isPresent());
+        assertTrue(subject.tryAcquire(List.of(NIGHT.plusDays(1))).isPresent());
+
+        assertTrue(subject.tryAcquire(List.of(NIGHT, NIGHT.plusDays(1), NIGHT.plusDays(2))).isEmpty());
+        assertEquals(2, subject.getRemainingUnits(NIGHT));
+        assertEquals(0, subject.getRemainingUnits(NIGHT.plusDays(1)));
+        assertEquals(2, subject.getRemainingUnits(NIGHT.plusDays(2)));
+    }
+
+    @Test
+    void release_whenNightsTaken_shouldGiveUnitsBack() {
+        assertTrue(subject.tryAcquire(List.of(NIGHT)).isPresent());
+        subject.release(List.of(NIGHT, NIGHT.plusDays(1)));
+
+        assertEquals(2, subject.getRemainingUnits(NIGHT));
+        assertEquals(2, subject.getRemainingUnits(NIGHT.plusDays(1)));
+    }
+
+    @Test
+    void release_whenReleasedTwice_shouldNotExceedCapacity() {
+        assertTrue(subject.tryAcquire(List.of(NIGHT)).isPresent());
+        subject.release(List.of(NIGHT));
+        subject.release(List.of(NIGHT));
+
+        assertEquals(2, subject.getRemainingUnits(NIGHT));
+    }
+
+    @Test
+    void tryAcquireAndRelease_whenPooled_shouldReportOnlyNightsThatFlip() {
+        assertEquals(Optional.of(Set.of()), subject.tryAcquire(List.of(NIGHT)).map(Map::keySet));
+        assertEquals(Optional.of(Set.of(NIGHT)), subject.tryAcquire(List.of(NIGHT, NIGHT.plusDays(1))).map(Map::keySet));
+
+        assertEquals(Set.of(NIGHT), subject.release(List.of(NIGHT)).keySet());
+        assertEquals(Set.of(), subject.release(List.of(NIGHT, NIGHT.plusDays(1))).keySet());
+    }
+
+    @Test
+    void tryAcquireAndRelease_whenNightFlipsBackAndForth_shouldVersionFlipsInOrder() {
+        subject.tryAcquire(List.of(NIGHT));
+        long filledVersion = subject.tryAcquire(List.of(NIGHT)).orElseThrow().get(NIGHT);
+        long reopenedVersion = subject.release(List.of(NIGHT)).get(NIGHT);
+        long refilledVersion = subject.tryAcquire(List.of(NIGHT)).orElseThrow().get(NIGHT);
+
+        // published in any order, the latest flip of the night carries the highest version
+        assertTrue(filledVersion < reopenedVersion);
+        assertTrue(reopenedVersion < refilledVersion);
+    }
+}
@@ -1,9 +1,15 @@
 package com.upgrade.challenge.impl;
 
 import com.upgrade.challenge.api.ReservationApi;
+import com.upgrade.challenge.api.model.AvailabilityChangedEvent;
+import com.upgrade.challenge.api.model.AvailableWindow;
 import com.upgrade.challenge.api.model.ReservationApiModel;
+import com.upgrade.challenge.api.model.ReservationDetails;
+import com.upgrade.challenge.api.model.ReservationPage;
+import com.upgrade.challenge.dao.ReservationHistoryRepository;
 import com.upgrade.challenge.dao.ReservationRepository;
 import com.upgrade.challenge.dao.model.Reservation;
+import com.upgrade.challenge.dao.model.ReservationHistory;
 import com.upgrade.challenge.impl.exception.ReservationException;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
@@ -11,19 +17,29 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.context.event.ApplicationEvents;
+import org.springframework.test.context.event.RecordApplicationEvents;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.*;
 
 @SpringBootTest
+@RecordApplicationEvents
 class ReservationApiImplTest {
 
     private static final Long RESERVATION_ID = 1L;
@@ -31,9 +47,18 @@ class ReservationApiImplTest {
     @MockBean
     ReservationRepository repository;
 
+    @MockBean
+    ReservationHistoryRepository historyRepository;
+
     @Autowired
     ReservationApi subject;
 
+    @Autowired
+    ApplicationEvents applicationEvents;
+
+    @Autowired
+    NightCapacityLedger capacityLedger;
+
     private Reservation reservation1;
     private Reservation reservation2;
     private Reservation reservation3;
@@ -57,6 +82,7 @@ class ReservationApiImplTest {
         List<Reservation> reservationList = Arrays.asList(reservation1, reservation2, reservation3, reservation4);
 
         when(repository.findActiveReservationBetweenDates(any(), any())).thenReturn(reservationList);
+        capacityLedger.clear();
     }
 
 
@@ -72,6 +98,28 @@ class ReservationApiImplTest {
         assertEquals(result, Collections.emptyList());
     }
 
+    @Test
+    void findAvailableWindows_whenFreeRunsExist_shouldReturnEarliestWindows() throws ReservationException {
+        List<AvailableWindow> result = subject.findAvailableWindows(LocalDate.now().plusDays(1), LocalDate.now().plusDays(20), 2, 5);
+        assertEquals(Arrays.asList(window(2, 4), window(3, 5), window(6, 8), window(7, 9), window(8, 10)), result);
+
+        result = subject.findAvailableWindows(LocalDate.now().plusDays(1), LocalDate.now().plusDays(20), 3, 3);
+        assertEquals(Arrays.asList(window(2, 5), window(6, 9), window(7, 10)), result);
+    }
+
+    @Test
+    void findAvailableWindows_whenNoRunFitsBeforeHorizon_shouldReturnEmptyList() throws ReservationException {
+        assertEquals(Collections.emptyList(), subject.findAvailableWindows(LocalDate.now().plusDays(1), LocalDate.now().plusDays(4), 3, 5));
+        assertEquals(Collections.emptyList(), subject.findAvailableWindows(LocalDate.now().plusDays(10), LocalDate.now().plusDays(13), 1, 5));
+    }
+
+    @Test
+    void findAvailableWindows_whenNightsOrCountInvalid_shouldThrowReservationException() {
+        assertThrows(ReservationException.class, () -> subject.findAvailableWindows(LocalDate.now().plusDays(1), LocalDate.now().plusDays(20), 0, 5));
+        assertThrows(ReservationException.class, () -> subject.findAvailableWindows(LocalDate.now().plusDays(1), LocalDate.now().plusDays(20), 4, 5));
+        assertThrows(ReservationException.class, () -> subject.findAvailableWindows(LocalDate.now().plusDays(1), LocalDate.now().plusDays(20), 2, 0));
+    }
+
     @Test
     void reserve_whenSuccessfullyReserve_shouldReturnReservationId() throws ReservationException {
         when(repository.save(any())).thenReturn(cancelledReservation);
@@ -82,6 +130,25 @@ class ReservationApiImplTest {
         verify(repository, times(1)).save(any());
     }
 
+    @Test
+    void reserve_whenNightsAlreadyTaken_shouldNotSave() throws ReservationException {
+        capacityLedger.tryAcquire(Set.of(LocalDate.now().plusDays(22)));
+
+        assertEquals(Optional.empty(), subject.reserve(reservationApiModel));
+        verify(repository, times(0)).save(any());
+        assertEquals(1, capacityLedger.getRemainingUnits(LocalDate.now().plusDays(20)));
+    }
+
+    @Test
+    void reserve_whenSaveFails_shouldGiveNightsBack() {
+        when(repository.save(any())).thenThrow(new IllegalStateException("database unavailable"));
+
+        assertThrows(IllegalStateException.class, () -> subject.reserve(reservationApiModel));
+        assertEquals(Map.of(LocalDate.now().plusDays(20).toString(), 1, LocalDate.now().plusDays(21).toString(), 1,
+                        LocalDate.now().plusDays(22).toString(), 1, LocalDate.now().plusDays(23).toString(), 1),
+                subject.getRemainingUnits(LocalDate.now().plusDays(20), LocalDate.now().plusDays(23)));
+    }
+
     @Test
     void cancelReservation_whenIdNotFound_shouldThrowReservationException() {
         when(repository.findById(anyLong())).thenReturn(Optional.empty());
@@ -106,8 +173,23 @@ class ReservationApiImplTest {
         when(repository.findById(anyLong()))
                 .thenReturn(Optional.of(new Reservation(RESERVATION_ID, "test1@email.com", "John Doe1", LocalDate.now().plusDays(1), LocalDate.now().plusDays(2), false)));
 
+        when(repository.cancelIfUnchanged(any(), any(), any())).thenReturn(1);
+
         subject.cancelReservation(RESERVATION_ID);
-        verify(repository, times(1)).save(any());
+        verify(repository, times(1)).cancelIfUnchanged(RESERVATION_ID, LocalDate.now().plusDays(1), LocalDate.now().plusDays(2));
+    }
+
+    @Test
+    void cancelReservation_whenCancelledConcurrently_shouldNotReleaseNights() {
+        Reservation activeReservation = new Reservation(RESERVATION_ID, "test1@email.com", "John Doe1", LocalDate.now().plusDays(1), LocalDate.now().plusDays(2), false);
+        Reservation cancelledByOther = new Reservation(RESERVATION_ID, "test1@email.com", "John Doe1", LocalDate.now().plusDays(1), LocalDate.now().plusDays(2), true);
+        when(repository.findById(anyLong())).thenReturn(Optional.of(activeReservation), Optional.of(cancelledByOther));
+        capacityLedger.tryAcquire(Set.of(LocalDate.now().plusDays(1)));
+
+        ReservationException exception = Assertions.assertThrows(ReservationException.class, () -> subject.cancelReservation(RESERVATION_ID));
+        assertEquals(String.format("Reservation with ID : %s, has been cancelled previously!", RESERVATION_ID), exception.getMessage());
+        assertEquals(0, capacityLedger.getRemainingUnits(LocalDate.now().plusDays(1)));
+        assertEquals(0, applicationEvents.stream(AvailabilityChangedEvent.class).count());
     }
 
     @Test
@@ -144,14 +226,122 @@ class ReservationApiImplTest {
     }
 
     @Test
-    void updateReservation_whenUpdateSuccessful_shouldCancelOldReservationAndSaveNewReservation() throws ReservationException {
+    void updateReservation_whenUpdateSuccessful_shouldCompareAndSetReservationRow() throws ReservationException {
         when(repository.findById(any())).thenReturn(Optional.ofNullable(reservation1));
-        when(repository.save(any())).thenReturn(reservation1);
+        when(repository.updateIfUnchanged(any(), any(), any(), any(), any(), any(), any())).thenReturn(1);
 
         Optional<Long> updatedReservation  = subject.updateReservation(RESERVATION_ID, reservationApiModel);
         assertTrue(updatedReservation.isPresent());
         assertEquals(RESERVATION_ID, updatedReservation.get());
-        verify(repository, times(2)).save(any()); // 1 for cancelling, 1 to actually save the change
+        verify(repository, times(1)).updateIfUnchanged(RESERVATION_ID, reservation1.getStartDate(), reservation1.getEndDate(),
+                reservationApiModel.getEmail(), reservationApiModel.getFullName(), reservationApiModel.getStartDate(), reservationApiModel.getEndDate());
+    }
+
+    @Test
+    void updateReservation_whenModifiedConcurrently_shouldGiveNewNightsBack() {
+        when(repository.findById(any())).thenReturn(Optional.ofNullable(reservation1));
+
+        ReservationException exception = Assertions.assertThrows(ReservationException.class, () -> subject.updateReservation(RESERVATION_ID, reservationApiModel));
+        assertEquals(String.format("Reservation with ID : %s, was modified concurrently, please retry!", RESERVATION_ID), exception.getMessage());
+        assertEquals(1, capacityLedger.getRemainingUnits(LocalDate.now().plusDays(20)));
+        assertEquals(0, applicationEvents.stream(AvailabilityChangedEvent.class).count());
+    }
+
+    @Test
+    void updateReservation_whenDatesOverlap_shouldPublishOnlyFlippedNights() throws ReservationException {
+        Reservation existingReservation = new Reservation(RESERVATION_ID, "test1@email.com", "John Doe1", LocalDate.now().plusDays(30), LocalDate.now().plusDays(32), false);
+        when(repository.findById(any())).thenReturn(Optional.of(existingReservation));
+        when(repository.updateIfUnchanged(any(), any(), any(), any(), any(), any(), any())).thenReturn(1);
+        capacityLedger.tryAcquire(Set.of(LocalDate.now().plusDays(30), LocalDate.now().plusDays(31)));
+
+        subject.updateReservation(RESERVATION_ID, new ReservationApiModel("test1@email.com", "John Doe1", LocalDate.now().plusDays(31), LocalDate.now().plusDays(33)));
+
+        List<AvailabilityChangedEvent> events = applicationEvents.stream(AvailabilityChangedEvent.class).toList();
+        assertEquals(1, events.size());
+        assertEquals(Set.of(LocalDate.now().plusDays(30)), events.get(0).getDaysAvailable().keySet());
+        assertEquals(Set.of(LocalDate.now().plusDays(32)), events.get(0).getDaysTaken().keySet());
+    }
+
+    @Test
+    void reserve_whenPooledNightsKeepUnits_shouldPublishOnlyFilledNights() throws ReservationException {
+        when(repository.save(any())).thenReturn(cancelledReservation);
+        ReflectionTestUtils.setField(capacityLedger, "capacity", 2);
+        try {
+            capacityLedger.tryAcquire(Set.of(LocalDate.now().plusDays(21)));
+
+            subject.reserve(reservationApiModel);
+
+            // nights 20 and 22 keep a unit and stay available, night 21 just lost its last one
+            List<AvailabilityChangedEvent> events = applicationEvents.stream(AvailabilityChangedEvent.class).toList();
+            assertEquals(1, events.size());
+            assertEquals(Set.of(), events.get(0).getDaysAvailable().keySet());
+            assertEquals(Set.of(LocalDate.now().plusDays(21)), events.get(0).getDaysTaken().keySet());
+        } finally {
+            ReflectionTestUtils.setField(capacityLedger, "capacity", 1);
+        }
+    }
+
+    @Test
+    void getCalendarVersion_whenReservationChanges_shouldIncreaseOnlyForAffectedWindow() throws ReservationException {
+        when(repository.save(any())).thenReturn(cancelledReservation);
+        when(repository.findById(anyLong())).thenReturn(Optional.of(cancelledReservation));
+
+        Long reservedWindowVersion = subject.getCalendarVersion(LocalDate.now().plusDays(20), LocalDate.now().plusDays(25));
+        Long otherWindowVersion = subject.getCalendarVersion(LocalDate.now().plusDays(40), LocalDate.now().plusDays(45));
+
+        subject.reserve(reservationApiModel);
+        Long afterReserveVersion = subject.getCalendarVersion(LocalDate.now().plusDays(20), LocalDate.now().plusDays(25));
+        assertTrue(afterReserveVersion > reservedWindowVersion);
+        assertEquals(otherWindowVersion, subject.getCalendarVersion(LocalDate.now().plusDays(40), LocalDate.now().plusDays(45)));
+
+        cancelledReservation.setCancelled(false);
+        when(repository.cancelIfUnchanged(any(), any(), any())).thenReturn(1);
+        subject.cancelReservation(CANCELLED_RESERVATION_ID);
+        assertTrue(subject.getCalendarVersion(LocalDate.now().plusDays(20), LocalDate.now().plusDays(25)) > afterReserveVersion);
+    }
+
+    @Test
+    void findReservationsByEmail_whenMoreResultsThanLimit_shouldReturnNextCursor() throws ReservationException {
+        when(repository.findByEmailAfter(any(), any(), any(), any(), any(), any())).thenReturn(Arrays.asList(reservation1, reservation2, reservation3));
+
+        ReservationPage page = subject.findReservationsByEmail("test1@email.com", null, null, null, null, 2);
+        assertEquals(Arrays.asList(toDetails(reservation1), toDetails(reservation2)), page.getReservations());
+        assertEquals(Optional.of(reservation2.getStartDate() + "_" + reservation2.getId()), page.getNextCursor());
+        verify(repository, times(1)).findByEmailAfter(eq("test1@email.com"), eq(LocalDate.EPOCH), eq(0L), isNull(), isNull(), eq(PageRequest.of(0, 3)));
+    }
+
+    @Test
+    void findReservationsByEmail_whenCursorGiven_shouldSeekAfterCursor() throws ReservationException {
+        when(repository.findByEmailAfter(any(), any(), any(), any(), any(), any())).thenReturn(List.of(reservation4));
+
+        ReservationPage page = subject.findReservationsByEmail("test1@email.com", false, null, null, reservation3.getStartDate() + "_3", 2);
+        assertEquals(List.of(toDetails(reservation4)), page.getReservations());
+        assertEquals(Optional.empty(), page.getNextCursor());
+        verify(repository, times(1)).findByEmailAfter(eq("test1@email.com"), eq(reservation3.getStartDate()), eq(3L), isNull(), eq(false), eq(PageRequest.of(0, 3)));
+    }
+
+    @Test
+    void findReservationsByEmail_whenArchivedStays_shouldMergeHistoryInStartDateOrder() throws ReservationException {
+        ReservationHistory archived = new ReservationHistory(7L, "test1@email.com", "John Doe1", LocalDate.now().minusDays(10), LocalDate.now().minusDays(8), false, LocalDateTime.now());
+        // archived between the two reads, returned by both
+        ReservationHistory archivedMeanwhile = new ReservationHistory(reservation1.getId(), reservation1.getEmail(), reservation1.getFullName(),
+                reservation1.getStartDate(), reservation1.getEndDate(), false, LocalDateTime.now());
+        when(repository.findByEmailAfter(any(), any(), any(), any(), any(), any())).thenReturn(Arrays.asList(reservation1, reservation2));
+        when(historyRepository.findByEmailAfter(any(), any(), any(), any(), any(), any())).thenReturn(Arrays.asList(archived, archivedMeanwhile));
+
+        ReservationPage page = subject.findReservationsByEmail("test1@email.com", null, null, null, null, 2);
+        assertEquals(Arrays.asList(new ReservationDetails(7L, "test1@email.com", "John Doe1", LocalDate.now().minusDays(10).toString(),
+                LocalDate.now().minusDays(8).toString(), false), toDetails(reservation1)), page.getReservations());
+        assertEquals(Optional.of(reservation1.getStartDate() + "_" + reservation1.getId()), page.getNextCursor());
+        verify(historyRepository, times(1)).findByEmailAfter(eq("test1@email.com"), eq(LocalDate.EPOCH), eq(0L), isNull(), isNull(), eq(PageRequest.of(0, 3)));
+    }
+
+    @Test
+    void findReservationsByEmail_whenCursorOrLimitInvalid_shouldThrowReservationException() {
+        assertThrows(ReservationException.class, () -> subject.findReservationsByEmail("test1@email.com", null, null, null, "not-a-cursor", 2));
+        assertThrows(ReservationException.class, () -> subject.findReservationsByEmail("test1@email.com", null, null, null, "2023-07-20_abc", 2));
+        assertThrows(ReservationException.class, () -> subject.findReservationsByEmail("test1@email.com", null, null, null, null, 0));
+        assertThrows(ReservationException.class, () -> subject.findReservationsByEmail("test1@email.com", null, null, null, null, 101));
     }
 
     @Test
@@ -206,4 +396,13 @@ class ReservationApiImplTest {
     void isReservationValid_whenReservationValid_shouldReturnTrue() throws ReservationException {
         assertTrue(subject.isReservationValid(new ReservationApiModel("email@email.com", "John Test", LocalDate.now().plusDays(1), LocalDate.now().plusDays(4))));
     }
+
+    private AvailableWindow window(int startDaysFromNow, int endDaysFromNow) {
+        return new AvailableWindow(LocalDate.now().plusDays(startDaysFromNow).toString(), LocalDate.now().plusDays(endDaysFromNow).toString());
+    }
+
+    private static ReservationDetails toDetails(Reservation reservation) {
+        return new ReservationDetails(reservation.getId(), reservation.getEmail(), reservation.getFullName(),
+                reservation.getStartDate().toString(), reservation.getEndDate().toString(), reservation.isCancelled());
+    }
 }
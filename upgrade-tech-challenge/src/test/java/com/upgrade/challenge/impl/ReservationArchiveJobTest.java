@@ -0,0 +1,101 @@
+package com.upgrade.challenge.impl;
+
+import com.upgrade.challenge.api.ReservationApi;
+import com.upgrade.challenge.api.model.ReservationDetails;
+import com.upgrade.challenge.api.model.ReservationPage;
+import com.upgrade.challenge.dao.ReservationHistoryRepository;
+import com.upgrade.challenge.dao.ReservationRepository;
+import com.upgrade.challenge.dao.model.Reservation;
+import com.upgrade.challenge.impl.exception.ReservationException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.TestPropertySource;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@TestPropertySource(properties = "reservation.archive.batch-size=2")
+class ReservationArchiveJobTest {
+
+    @Autowired
+    ReservationArchiveJob subject;
+
+    @Autowired
+    ReservationRepository repository;
+
+    @Autowired
+    ReservationHistoryRepository historyRepository;
+
+    @Autowired
+    ReservationApi reservationApi;
+
+    @AfterEach
+    void tearDown() {
+        repository.deleteAll();
+        historyRepository.deleteAll();
+    }
+
+    @Test
+    void archiveBefore_whenPast_shouldMoveToHistoryInBatches() {
+        Long pastCancelled1 = repository.save(new Reservation(null, "test1@email.com", "John Doe1", LocalDate.now().minusDays(10), LocalDate.now().minusDays(8), true)).getId();
+        Long pastCancelled2 = repository.save(new Reservation(null, "test2@email.com", "John Doe2", LocalDate.now().minusDays(7), LocalDate.now().minusDays(6), true)).getId();
+        Long pastCancelled3 = repository.save(new Reservation(null, "test3@email.com", "John Doe3", LocalDate.now().minusDays(5), LocalDate.now().minusDays(4), true)).getId();
+        Long pastActive = repository.save(new Reservation(null, "test4@email.com", "John Doe4", LocalDate.now().minusDays(3), LocalDate.now().minusDays(2), false)).getId();
+        Long futureCancelled = repository.save(new Reservation(null, "test5@email.com", "John Doe5", LocalDate.now().plusDays(3), LocalDate.now().plusDays(4), true)).getId();
+
+        Long endingToday = repository.save(new Reservation(null, "test6@email.com", "John Doe6", LocalDate.now().minusDays(1), LocalDate.now(), false)).getId();
+
+        assertEquals(4, subject.archiveBefore(LocalDate.now()));
+
+        assertFalse(repository.existsById(pastCancelled1));
+        assertFalse(repository.existsById(pastCancelled2));
+        assertFalse(repository.existsById(pastCancelled3));
+        assertFalse(repository.existsById(pastActive));
+        assertTrue(repository.existsById(futureCancelled));
+        assertTrue(repository.existsById(endingToday));
+        assertEquals(4, historyRepository.count());
+        assertFalse(historyRepository.findById(pastActive).get().isCancelled());
+        assertTrue(historyRepository.findById(pastCancelled1).isPresent());
+    }
+
+    @Test
+    void findReservation_whenArchived_shouldReturnFromHistory() {
+        Long archivedId = repository.save(new Reservation(null, "test1@email.com", "John Doe1", LocalDate.now().minusDays(10), LocalDate.now().minusDays(8), true)).getId();
+        subject.archiveBefore(LocalDate.now());
+
+        Optional<Reservation> result = reservationApi.findReservation(archivedId);
+        assertTrue(result.isPresent());
+        assertEquals("test1@email.com", result.get().getEmail());
+        assertTrue(result.get().isCancelled());
+
+        ReservationException exception = Assertions.assertThrows(ReservationException.class, () -> reservationApi.cancelReservation(archivedId));
+        assertEquals(String.format("Reservation with ID : %s, has been cancelled previously!", archivedId), exception.getMessage());
+    }
+
+    @Test
+    void cancelReservation_whenArchivedAndActive_shouldThrow() {
+        Long archivedId = repository.save(new Reservation(null, "test1@email.com", "John Doe1", LocalDate.now().minusDays(10), LocalDate.now().minusDays(8), false)).getId();
+        subject.archiveBefore(LocalDate.now());
+
+        ReservationException exception = Assertions.assertThrows(ReservationException.class, () -> reservationApi.cancelReservation(archivedId));
+        assertEquals(String.format("Reservation with ID : %s, has already ended!", archivedId), exception.getMessage());
+        assertFalse(repository.existsById(archivedId));
+    }
+
+    @Test
+    void findReservationsByEmail_whenArchived_shouldListPastStays() throws ReservationException {
+        Long pastId = repository.save(new Reservation(null, "test1@email.com", "John Doe1", LocalDate.now().minusDays(10), LocalDate.now().minusDays(8), false)).getId();
+        Long futureId = repository.save(new Reservation(null, "test1@email.com", "John Doe1", LocalDate.now().plusDays(3), LocalDate.now().plusDays(4), false)).getId();
+        subject.archiveBefore(LocalDate.now());
+
+        ReservationPage page = reservationApi.findReservationsByEmail("test1@email.com", null, null, null, null, 10);
+        assertEquals(List.of(pastId, futureId), page.getReservations().stream().map(ReservationDetails::getReservationId).toList());
+    }
+}